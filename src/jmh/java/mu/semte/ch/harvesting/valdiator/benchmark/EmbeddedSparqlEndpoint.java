@@ -0,0 +1,201 @@
+package mu.semte.ch.harvesting.valdiator.benchmark;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryExecutionFactory;
+import org.apache.jena.query.QueryFactory;
+import org.apache.jena.query.QueryParseException;
+import org.apache.jena.query.ResultSetFormatter;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.DatasetGraphFactory;
+import org.apache.jena.update.UpdateAction;
+import org.apache.jena.update.UpdateFactory;
+
+/**
+ * in-memory stand-in for the triplestore: a sparql 1.1 protocol endpoint over http, with queries given as the
+ * query parameter (get or form post) or as an application/sparql-query body, and updates as the update parameter,
+ * an application/sparql-update body, or a query parameter that is not a query (as virtuoso accepts).
+ * like virtuoso, the default graph of a query is the union of the named graphs.
+ * queries run concurrently, updates one at a time.
+ */
+public class EmbeddedSparqlEndpoint implements AutoCloseable {
+    private final DatasetGraph dataset = DatasetGraphFactory.createGeneral();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final AtomicLong queries = new AtomicLong();
+    private final AtomicLong updates = new AtomicLong();
+    private final HttpServer server;
+
+    public EmbeddedSparqlEndpoint() throws IOException {
+        dataset.setDefaultGraph(dataset.getUnionGraph());
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/sparql", this::handle);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.start();
+    }
+
+    public String getUrl() {
+        return "http://localhost:%d/sparql".formatted(server.getAddress().getPort());
+    }
+
+    public long getQueries() {
+        return queries.get();
+    }
+
+    public long getUpdates() {
+        return updates.get();
+    }
+
+    public void update(String update) {
+        write(() -> {
+            UpdateAction.execute(UpdateFactory.create(update), dataset);
+            return null;
+        });
+    }
+
+    public boolean ask(String query) {
+        return read(() -> QueryExecutionFactory.create(query, DatasetFactory.wrap(dataset)).execAsk());
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            var parameters = parameters(exchange);
+            var update = Optional.ofNullable(parameters.get("update"));
+            var query = Optional.ofNullable(parameters.get("query"));
+            try {
+                if (update.isPresent()) {
+                    update(update.get());
+                    updates.incrementAndGet();
+                    respond(exchange, 200, "text/plain", new byte[0]);
+                } else if (query.isPresent()) {
+                    query(exchange, query.get());
+                } else {
+                    respond(exchange, 400, "text/plain", "missing query or update".getBytes(StandardCharsets.UTF_8));
+                }
+            } catch (RuntimeException e) {
+                respond(exchange, 400, "text/plain", StringUtils.defaultString(e.getMessage())
+                        .getBytes(StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    private void query(HttpExchange exchange, String queryString) throws IOException {
+        Query query;
+        try {
+            query = QueryFactory.create(queryString);
+        } catch (QueryParseException e) {
+            update(queryString);
+            updates.incrementAndGet();
+            respond(exchange, 200, "text/plain", new byte[0]);
+            return;
+        }
+        queries.incrementAndGet();
+        var accept = StringUtils.defaultString(exchange.getRequestHeaders().getFirst("Accept"));
+        var xml = accept.contains("xml") && !accept.contains("json");
+        var out = new ByteArrayOutputStream();
+        var contentType = read(() -> {
+            try (var execution = QueryExecutionFactory.create(query, DatasetFactory.wrap(dataset))) {
+                if (query.isSelectType()) {
+                    if (xml) {
+                        ResultSetFormatter.outputAsXML(out, execution.execSelect());
+                        return "application/sparql-results+xml";
+                    }
+                    ResultSetFormatter.outputAsJSON(out, execution.execSelect());
+                    return "application/sparql-results+json";
+                }
+                if (query.isAskType()) {
+                    if (xml) {
+                        ResultSetFormatter.outputAsXML(out, execution.execAsk());
+                        return "application/sparql-results+xml";
+                    }
+                    ResultSetFormatter.outputAsJSON(out, execution.execAsk());
+                    return "application/sparql-results+json";
+                }
+                var model = query.isConstructType() ? execution.execConstruct() : execution.execDescribe();
+                var lang = accept.contains("n-triples") && !accept.startsWith("text/turtle")
+                        ? Lang.NTRIPLES
+                        : xml ? Lang.RDFXML : Lang.TURTLE;
+                RDFDataMgr.write(out, model, lang);
+                return lang.getContentType().getContentTypeStr();
+            }
+        });
+        respond(exchange, 200, contentType, out.toByteArray());
+    }
+
+    private Map<String, String> parameters(HttpExchange exchange) throws IOException {
+        var parameters = new HashMap<String, String>();
+        parse(exchange.getRequestURI().getRawQuery(), parameters);
+        if ("POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+            var body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            var contentType = StringUtils.defaultString(exchange.getRequestHeaders().getFirst("Content-Type"));
+            if (contentType.startsWith("application/sparql-query")) {
+                parameters.put("query", body);
+            } else if (contentType.startsWith("application/sparql-update")) {
+                parameters.put("update", body);
+            } else {
+                parse(body, parameters);
+            }
+        }
+        return parameters;
+    }
+
+    private void parse(String form, Map<String, String> parameters) {
+        if (StringUtils.isEmpty(form)) {
+            return;
+        }
+        for (var pair : form.split("&")) {
+            var index = pair.indexOf('=');
+            if (index > 0) {
+                parameters.put(URLDecoder.decode(pair.substring(0, index), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(index + 1), StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    private void respond(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        if (body.length > 0) {
+            exchange.getResponseBody().write(body);
+        }
+    }
+
+    private <T> T read(Supplier<T> action) {
+        lock.readLock().lock();
+        try {
+            return action.get();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private <T> T write(Supplier<T> action) {
+        lock.writeLock().lock();
+        try {
+            return action.get();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
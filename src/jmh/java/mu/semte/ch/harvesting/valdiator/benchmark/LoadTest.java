@@ -0,0 +1,240 @@
+package mu.semte.ch.harvesting.valdiator.benchmark;
+
+import static mu.semte.ch.harvesting.valdiator.Constants.STATUS_FAILED;
+import static mu.semte.ch.harvesting.valdiator.Constants.STATUS_SCHEDULED;
+import static mu.semte.ch.harvesting.valdiator.Constants.STATUS_SUCCESS;
+import static mu.semte.ch.harvesting.valdiator.Constants.SUBJECT_STATUS;
+import static mu.semte.ch.harvesting.valdiator.Constants.TASK_HARVESTING_FILTERING;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import mu.semte.ch.harvesting.valdiator.HarvestingFilteringServiceApplication;
+import org.apache.commons.io.FileUtils;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+
+/**
+ * end-to-end load test of the filtering of a task: an {@link EmbeddedSparqlEndpoint} stands in for the triplestore,
+ * a synthetic task with an input container of share files generated from a shacl profile is inserted in it, and the
+ * application is started against it and driven through /delta until the task succeeds or fails.
+ * reports files/sec, triples/sec, the peak heap and the p50/p99 of each stage, and exits with 1 if the task failed.
+ * <p>
+ * run with {@code mvn -Pbenchmark,loadtest test-compile exec:exec -Dloadtest.args="files=200 resources=1000"},
+ * options:
+ * <ul>
+ * <li>files: number of share files (200)</li>
+ * <li>resources: resources per file (1000)</li>
+ * <li>errorRate: share of the resources with a violation (0.1)</li>
+ * <li>profile: shacl profile the data is generated from and validated against
+ * (test/config/validation/application-profile.ttl)</li>
+ * <li>work: share folder and report directory (target/loadtest)</li>
+ * <li>timeoutMinutes: maximum duration of the task (30)</li>
+ * <li>seed: seed of the generator (42)</li>
+ * </ul>
+ * arguments starting with -- are passed to the application, e.g. {@code --application.validation.maxConcurrency=8}.
+ */
+public class LoadTest {
+    private static final String GRAPH = "http://mu.semte.ch/graphs/harvesting/loadtest";
+    private static final String PREFIX = "http://data.lblod.info/id/loadtest/";
+
+    public static void main(String[] args) throws Exception {
+        var options = new HashMap<>(Map.of("files", "200", "resources", "1000", "errorRate", "0.1",
+                "profile", "test/config/validation/application-profile.ttl", "work", "target/loadtest",
+                "timeoutMinutes", "30", "seed", "42"));
+        var applicationArgs = new ArrayList<String>();
+        for (var arg : args) {
+            var index = arg.indexOf('=');
+            var name = index > 0 ? arg.substring(0, index) : arg;
+            if (arg.startsWith("--")) {
+                applicationArgs.add(arg);
+            } else if (options.containsKey(name)) {
+                options.put(name, arg.substring(index + 1));
+            } else {
+                throw new IllegalArgumentException("unknown option '%s'".formatted(arg));
+            }
+        }
+        var files = Integer.parseInt(options.get("files"));
+        var resources = Integer.parseInt(options.get("resources"));
+        var errorRate = Double.parseDouble(options.get("errorRate"));
+        var profile = new File(options.get("profile")).getAbsoluteFile();
+        var work = new File(options.get("work")).getAbsoluteFile();
+        var share = new File(work, "share");
+        FileUtils.deleteDirectory(share);
+        Files.createDirectories(share.toPath());
+
+        try (var endpoint = new EmbeddedSparqlEndpoint()) {
+            System.out.printf("generating %d files of %d resources (error rate %.2f)%n", files, resources, errorRate);
+            var triples = generate(endpoint, profile, share, files, resources, errorRate,
+                    Long.parseLong(options.get("seed")));
+            var task = PREFIX + "tasks/" + UUID.randomUUID();
+            seedTask(endpoint, task, files);
+
+            applicationArgs.addAll(List.of("--server.port=0",
+                    "--sparql.endpoint=" + endpoint.getUrl(),
+                    "--sparql.highLoadSparqlEndpoint=" + endpoint.getUrl(),
+                    "--share-folder.path=" + share,
+                    "--shacl.application-profile.default=file:" + profile,
+                    "--shacl.profiles.directory=" + profile.getParent(),
+                    "--shacl.profiles.watch=false",
+                    "--management.metrics.distribution.percentiles.validator.stage=0.5,0.99"));
+            var context = SpringApplication.run(HarvestingFilteringServiceApplication.class,
+                    applicationArgs.toArray(String[]::new));
+            try (context) {
+                var port = ((WebServerApplicationContext) context).getWebServer().getPort();
+                var heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+                        .filter(pool -> pool.getType() == MemoryType.HEAP)
+                        .toList();
+                System.gc();
+                heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+
+                var start = System.nanoTime();
+                sendDelta(port, task);
+                var timeout = Duration.ofMinutes(Long.parseLong(options.get("timeoutMinutes")));
+                var status = awaitTask(endpoint, task, timeout);
+                var seconds = (System.nanoTime() - start) / 1e9;
+                var peakHeap = heapPools.stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+
+                var report = report(context.getBean(MeterRegistry.class), status, files, triples, seconds, peakHeap,
+                        endpoint);
+                System.out.print(report);
+                Files.writeString(new File(work, "report.txt").toPath(), report);
+                if (!STATUS_SUCCESS.equals(status)) {
+                    System.exit(1);
+                }
+            }
+        }
+    }
+
+    /**
+     * writes the share files and inserts their logical and physical files, returns the number of triples.
+     */
+    private static long generate(EmbeddedSparqlEndpoint endpoint, File profile, File share, int files, int resources,
+            double errorRate, long seed) throws IOException {
+        var generator = new SyntheticHarvestGenerator(RDFDataMgr.loadModel(profile.getPath()), seed);
+        var triples = 0L;
+        var data = new StringBuilder();
+        for (var i = 0; i < files; i++) {
+            var model = generator.generate(resources, 1 - errorRate);
+            triples += model.size();
+            var name = "page-%05d.ttl".formatted(i);
+            try (var out = new FileOutputStream(new File(share, name))) {
+                RDFDataMgr.write(out, model, Lang.TURTLE);
+            }
+            var logical = PREFIX + "files/" + i;
+            data.append("""
+                    <%1$s> <http://www.semanticdesktop.org/ontologies/2007/01/19/nie#dataSource> <%2$s>.
+                    <%2$s> <http://www.w3.org/ns/prov#wasDerivedFrom> <%3$s>.
+                    <%4$s> <http://redpencil.data.gift/vocabularies/tasks/hasFile> <%2$s>.
+                    """.formatted("share://" + name, logical, PREFIX + "pages/" + i, PREFIX + "file-containers/1"));
+            if ((i + 1) % 500 == 0 || i == files - 1) {
+                endpoint.update("INSERT DATA { GRAPH <%s> { %s } }".formatted(GRAPH, data));
+                data.setLength(0);
+            }
+        }
+        return triples;
+    }
+
+    private static void seedTask(EmbeddedSparqlEndpoint endpoint, String task, int files) {
+        var now = "\"%s\"^^<http://www.w3.org/2001/XMLSchema#dateTime>".formatted(Instant.now());
+        endpoint.update("""
+                PREFIX task: <http://redpencil.data.gift/vocabularies/tasks/>
+                PREFIX dct: <http://purl.org/dc/terms/>
+                PREFIX mu: <http://mu.semte.ch/vocabularies/core/>
+                PREFIX adms: <http://www.w3.org/ns/adms#>
+                INSERT DATA { GRAPH <%1$s> {
+                    <%2$s> a task:Task;
+                        dct:isPartOf <%3$sjobs/1>;
+                        mu:uuid "%4$s";
+                        dct:created %5$s;
+                        dct:modified %5$s;
+                        adms:status <%6$s>;
+                        task:index "1";
+                        task:operation <%7$s>;
+                        task:inputContainer <%3$scontainers/1>.
+                    <%3$sjobs/1> mu:uuid "loadtest-job".
+                    <%3$scontainers/1> task:hasGraph <%3$sfile-containers/1>.
+                } }
+                """.formatted(GRAPH, task, PREFIX, UUID.randomUUID(), now, STATUS_SCHEDULED,
+                TASK_HARVESTING_FILTERING));
+        System.out.printf("seeded task %s with %d files%n", task, files);
+    }
+
+    private static void sendDelta(int port, String task) throws IOException, InterruptedException {
+        var delta = """
+                [{"inserts": [{"subject": {"type": "uri", "value": "%s"},
+                  "predicate": {"type": "uri", "value": "%s"},
+                  "object": {"type": "uri", "value": "%s"}}], "deletes": []}]
+                """.formatted(task, SUBJECT_STATUS, STATUS_SCHEDULED);
+        var response = HttpClient.newHttpClient().send(HttpRequest.newBuilder(
+                                URI.create("http://localhost:%d/delta".formatted(port)))
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofString(delta))
+                        .build(),
+                HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException("delta was not accepted: " + response.statusCode());
+        }
+    }
+
+    private static String awaitTask(EmbeddedSparqlEndpoint endpoint, String task, Duration timeout)
+            throws InterruptedException {
+        var deadline = System.nanoTime() + timeout.toNanos();
+        while (System.nanoTime() < deadline) {
+            for (var status : List.of(STATUS_SUCCESS, STATUS_FAILED)) {
+                if (endpoint.ask("ASK { <%s> <%s> <%s> }".formatted(task, SUBJECT_STATUS, status))) {
+                    return status;
+                }
+            }
+            Thread.sleep(200);
+        }
+        return "timeout";
+    }
+
+    private static String report(MeterRegistry registry, String status, int files, long triples, double seconds,
+            long peakHeap, EmbeddedSparqlEndpoint endpoint) {
+        var report = new StringBuilder();
+        report.append("status: %s%n".formatted(status.substring(status.lastIndexOf('/') + 1)));
+        report.append("files: %d, triples: %d, duration: %.1f s%n".formatted(files, triples, seconds));
+        report.append("files/sec: %.1f%n".formatted(files / seconds));
+        report.append("triples/sec: %.0f%n".formatted(triples / seconds));
+        report.append("peak heap: %d MB%n".formatted(peakHeap >> 20));
+        report.append("sparql queries: %d, updates: %d%n".formatted(endpoint.getQueries(), endpoint.getUpdates()));
+        report.append("%-12s %8s %10s %10s%n".formatted("stage", "count", "p50 ms", "p99 ms"));
+        registry.find("validator.stage").timers().stream()
+                .sorted(Comparator.comparing(timer -> timer.getId().getTag("stage")))
+                .forEach(timer -> report.append("%-12s %8d %10.1f %10.1f%n".formatted(timer.getId().getTag("stage"),
+                        timer.count(), percentile(timer, 0.5), percentile(timer, 0.99))));
+        return report.toString();
+    }
+
+    private static double percentile(Timer timer, double percentile) {
+        for (var value : timer.takeSnapshot().percentileValues()) {
+            if (value.percentile() == percentile) {
+                return value.value(TimeUnit.MILLISECONDS);
+            }
+        }
+        return Double.NaN;
+    }
+}
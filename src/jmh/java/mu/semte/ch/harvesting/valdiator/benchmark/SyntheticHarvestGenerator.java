@@ -0,0 +1,214 @@
+package mu.semte.ch.harvesting.valdiator.benchmark;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.regex.Pattern;
+import org.apache.jena.datatypes.TypeMapper;
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.graph.Node;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.RDFList;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.shacl.vocabulary.SHACL;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.RDFS;
+
+/**
+ * generates harvested-like data for the classes targeted by a shacl profile.
+ * every resource gets the properties declared by its shape, with values satisfying sh:in, sh:class,
+ * sh:datatype, sh:nodeKind, sh:node, sh:pattern and sh:maxLength where possible.
+ * (1 - conformanceRatio) of the resources get one violation: an undeclared property on closed shapes,
+ * a wrongly typed value or one value too many.
+ */
+public class SyntheticHarvestGenerator {
+    private static final String DATA_PREFIX = "http://data.lblod.info/id/benchmark/";
+    private static final Property UNDECLARED = ModelFactory.createDefaultModel()
+            .createProperty("http://mu.semte.ch/vocabularies/ext/benchmarkUndeclared");
+    private static final List<String> STRING_CANDIDATES = List.of("value", "123-45-6789", "12345",
+            "2021-01-01", "http://data.lblod.info/id/benchmark", "nl", "A");
+
+    private final Model shapes;
+    private final Random random;
+    private int counter;
+
+    public SyntheticHarvestGenerator(Model shapes, long seed) {
+        this.shapes = shapes;
+        this.random = new Random(seed);
+    }
+
+    public Model generate(int resources, double conformanceRatio) {
+        var data = ModelFactory.createDefaultModel();
+        var targets = targetShapes();
+        if (targets.isEmpty()) {
+            throw new IllegalArgumentException("profile has no class targeted shapes");
+        }
+        for (var i = 0; i < resources; i++) {
+            var target = targets.get(i % targets.size());
+            var resource = data.createResource(DATA_PREFIX + (counter++));
+            resource.addProperty(RDF.type, target.targetClass());
+            fill(data, target.shape(), resource);
+            if (random.nextDouble() >= conformanceRatio) {
+                violate(data, target.shape(), resource);
+            }
+        }
+        return data;
+    }
+
+    private record TargetShape(Resource shape, Resource targetClass) {
+    }
+
+    private List<TargetShape> targetShapes() {
+        var explicit = shapes.listStatements(null, sh(SHACL.targetClass), (RDFNode) null)
+                .mapWith(s -> new TargetShape(s.getSubject(), s.getResource()));
+        var implicit = shapes.listSubjectsWithProperty(RDF.type, RDFS.Class)
+                .filterKeep(r -> r.hasProperty(RDF.type, shapes.createResource(SHACL.NodeShape.getURI())))
+                .mapWith(r -> new TargetShape(r, r));
+        return explicit.andThen(implicit).toList();
+    }
+
+    private void fill(Model data, Resource shape, Resource resource) {
+        for (var property : properties(shape)) {
+            var path = property.getPropertyResourceValue(sh(SHACL.path));
+            if (path == null || !path.isURIResource()) {
+                continue;
+            }
+            var max = intValue(property, SHACL.maxCount).orElse(Integer.MAX_VALUE);
+            var count = Math.min(max, Math.max(1, intValue(property, SHACL.minCount).orElse(1)));
+            for (var i = 0; i < count; i++) {
+                var value = valueFor(data, property);
+                if (value == null) {
+                    break;
+                }
+                resource.addProperty(data.createProperty(path.getURI()), value);
+            }
+        }
+    }
+
+    private RDFNode valueFor(Model data, Resource property) {
+        var in = property.getPropertyResourceValue(sh(SHACL.in));
+        if (in != null) {
+            return in.as(RDFList.class).asJavaList().stream().findFirst().orElse(null);
+        }
+        var expectedClass = property.getPropertyResourceValue(sh(SHACL.class_));
+        if (expectedClass != null) {
+            var value = data.createResource(DATA_PREFIX + (counter++));
+            value.addProperty(RDF.type, expectedClass);
+            return value;
+        }
+        var node = property.getPropertyResourceValue(sh(SHACL.node));
+        var nodeKind = property.getPropertyResourceValue(sh(SHACL.nodeKind));
+        if (node != null || (nodeKind != null && nodeKind.getURI().contains("BlankNode"))) {
+            var value = data.createResource();
+            if (node != null) {
+                fill(data, node, value);
+            }
+            return value;
+        }
+        var datatype = datatype(property);
+        if (datatype != null) {
+            return literal(data, property, datatype);
+        }
+        if (nodeKind != null && nodeKind.getURI().endsWith("IRI")) {
+            return data.createResource(DATA_PREFIX + (counter++));
+        }
+        return literal(data, property, XSDDatatype.XSDstring.getURI());
+    }
+
+    private String datatype(Resource property) {
+        var datatype = property.getPropertyResourceValue(sh(SHACL.datatype));
+        if (datatype != null) {
+            return datatype.getURI();
+        }
+        var or = property.getPropertyResourceValue(sh(SHACL.or));
+        if (or != null) {
+            return or.as(RDFList.class).asJavaList().stream()
+                    .filter(RDFNode::isResource)
+                    .map(alternative -> alternative.asResource().getPropertyResourceValue(sh(SHACL.datatype)))
+                    .filter(d -> d != null)
+                    .map(Resource::getURI)
+                    .findFirst()
+                    .orElse(null);
+        }
+        return null;
+    }
+
+    private RDFNode literal(Model data, Resource property, String datatype) {
+        var lexical = switch (datatype.replace(XSDDatatype.XSD + "#", "")) {
+            case "integer", "int", "long", "nonNegativeInteger", "positiveInteger" ->
+                Integer.toString(1 + random.nextInt(1000));
+            case "decimal", "double", "float" -> "1.5";
+            case "boolean" -> "true";
+            case "date" -> "2021-01-01";
+            case "dateTime" -> "2021-01-01T00:00:00";
+            case "anyURI" -> DATA_PREFIX + (counter++);
+            default -> validString(property);
+        };
+        if (lexical == null) {
+            return null;
+        }
+        if (RDF.langString.getURI().equals(datatype)) {
+            return data.createLiteral(lexical, "nl");
+        }
+        return data.createTypedLiteral(lexical, TypeMapper.getInstance().getSafeTypeByName(datatype));
+    }
+
+    private String validString(Resource property) {
+        var pattern = Optional.ofNullable(property.getProperty(sh(SHACL.pattern)))
+                .map(Statement::getString)
+                .map(Pattern::compile);
+        var maxLength = intValue(property, SHACL.maxLength).orElse(Integer.MAX_VALUE);
+        return STRING_CANDIDATES.stream()
+                .filter(candidate -> pattern.map(p -> p.matcher(candidate).find()).orElse(true))
+                .filter(candidate -> candidate.length() <= maxLength)
+                .findFirst()
+                .orElse(null);
+    }
+
+    private void violate(Model data, Resource shape, Resource resource) {
+        if (shape.hasLiteral(sh(SHACL.closed), true)) {
+            resource.addProperty(UNDECLARED, "undeclared");
+            return;
+        }
+        for (var property : properties(shape)) {
+            var path = property.getPropertyResourceValue(sh(SHACL.path));
+            if (path == null || !path.isURIResource()) {
+                continue;
+            }
+            var datatype = datatype(property);
+            if (datatype != null) {
+                var wrong = XSDDatatype.XSDstring.getURI().equals(datatype)
+                        ? data.createTypedLiteral(42)
+                        : data.createLiteral("not a " + datatype);
+                resource.addProperty(data.createProperty(path.getURI()), wrong);
+                return;
+            }
+            var max = intValue(property, SHACL.maxCount);
+            if (max.isPresent()) {
+                for (var i = 0; i <= max.get(); i++) {
+                    resource.addProperty(data.createProperty(path.getURI()),
+                            data.createResource(DATA_PREFIX + (counter++)));
+                }
+                return;
+            }
+        }
+    }
+
+    private List<Resource> properties(Resource shape) {
+        return shape.listProperties(sh(SHACL.property))
+                .mapWith(Statement::getResource)
+                .toList();
+    }
+
+    private Optional<Integer> intValue(Resource property, Node predicate) {
+        return Optional.ofNullable(property.getProperty(sh(predicate))).map(Statement::getInt);
+    }
+
+    private Property sh(Node predicate) {
+        return shapes.createProperty(predicate.getURI());
+    }
+}
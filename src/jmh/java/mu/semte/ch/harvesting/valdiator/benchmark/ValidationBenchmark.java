@@ -0,0 +1,143 @@
+package mu.semte.ch.harvesting.valdiator.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import mu.semte.ch.harvesting.valdiator.service.ResultFileFormat;
+import mu.semte.ch.harvesting.valdiator.service.ShapeIndex;
+import mu.semte.ch.harvesting.valdiator.service.TripleFileWriter;
+import mu.semte.ch.harvesting.valdiator.service.TriplePartitioner;
+import mu.semte.ch.lib.shacl.ShaclService;
+import mu.semte.ch.lib.utils.ModelUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.shacl.Shapes;
+import org.apache.jena.shacl.ValidationReport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * each stage of the filtering of a single file, on synthetic data generated from a shacl profile.
+ * run with {@code mvn -Pbenchmark test-compile exec:exec}, jmh options can be passed with {@code -Djmh.args="..."}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ValidationBenchmark {
+
+    @Param({ "test/config/validation/application-profile.ttl", "src/main/resources/default.shaclc" })
+    public String profile;
+
+    @Param({ "1000", "10000" })
+    public int resources;
+
+    @Param({ "1.0", "0.9", "0.5" })
+    public double conformanceRatio;
+
+    private ShaclService shaclService;
+    private ShapeIndex shapeIndex;
+    private Model model;
+    private byte[] turtle;
+    private ValidationReport report;
+    private Model validTriples;
+    private File outputDirectory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        var shapesModel = RDFDataMgr.loadModel(profile);
+        var shapes = Shapes.parse(shapesModel);
+        shaclService = new ShaclService(shapes, false);
+        shapeIndex = new ShapeIndex(shapes);
+        model = new SyntheticHarvestGenerator(shapesModel, 42).generate(resources, conformanceRatio);
+        var out = new ByteArrayOutputStream();
+        RDFDataMgr.write(out, model, Lang.TURTLE);
+        turtle = out.toByteArray();
+        report = shaclService.validate(model.getGraph());
+        validTriples = shaclService.filter(model, report);
+        outputDirectory = Files.createTempDirectory("harvesting-validator-benchmark").toFile();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        FileUtils.deleteQuietly(outputDirectory);
+    }
+
+    @Benchmark
+    public Model parseTurtle() {
+        return ModelUtils.toModel(new ByteArrayInputStream(turtle), Lang.TURTLE);
+    }
+
+    @Benchmark
+    public ValidationReport validate() {
+        return shaclService.validate(model.getGraph());
+    }
+
+    @Benchmark
+    public ValidationReport validateWithShapeIndex() {
+        return shapeIndex.validate(model.getGraph());
+    }
+
+    @Benchmark
+    public Model filter() {
+        return shaclService.filter(model, report);
+    }
+
+    @Benchmark
+    public Model difference() {
+        return model.difference(validTriples);
+    }
+
+    /**
+     * result file format, only varied for the benchmarks writing files.
+     */
+    @State(Scope.Benchmark)
+    public static class Output {
+        @Param({ "nt", "rt" })
+        public String format;
+
+        @Param({ "none", "gzip" })
+        public String compression;
+
+        private ResultFileFormat resultFileFormat;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            resultFileFormat = ResultFileFormat.of(format, compression);
+        }
+    }
+
+    @Benchmark
+    public long partition(Output output) throws Exception {
+        try (var valid = TripleFileWriter.open(new File(outputDirectory, "valid"), output.resultFileFormat);
+                var error = TripleFileWriter.open(new File(outputDirectory, "error"), output.resultFileFormat)) {
+            new TriplePartitioner(report, false).partition(model.getGraph().find(), valid, error);
+            return valid.getCount() + error.getCount();
+        }
+    }
+
+    @Benchmark
+    public File serialise(Output output) throws Exception {
+        try (var writer = TripleFileWriter.open(new File(outputDirectory, "model"), output.resultFileFormat)) {
+            model.getGraph().find().forEachRemaining(writer::triple);
+            return writer.getFile();
+        }
+    }
+}
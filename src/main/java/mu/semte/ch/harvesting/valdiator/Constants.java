@@ -13,4 +13,12 @@ public interface Constants {
   String FILTER_GRAPH_PREFIX = "http://mu.semte.ch/graphs/harvesting/tasks/filtering";
   String VALIDATING_GRAPH_PREFIX = "http://mu.semte.ch/graphs/harvesting/tasks/validating";
   String ERROR_URI_PREFIX = "http://redpencil.data.gift/id/jobs/error/";
+  String VALIDATION_SUMMARY_PREFIX = "http://data.lblod.info/id/validation-summaries/";
+
+  String VALID_TRIPLES_FILE_NAME = "valid-triples.ttl";
+  String ERROR_TRIPLES_FILE_NAME = "error-triples.ttl";
+  String VALIDATION_REPORT_FILE_NAME = "validation-report.ttl";
+  String VALIDATION_SUMMARY_FILE_NAME = "validation-summary.ttl";
+
+  String SHAPES_HASH = "http://mu.semte.ch/vocabularies/ext/shapesHash";
 }
@@ -1,11 +1,11 @@
 package mu.semte.ch.harvesting.valdiator.config;
 
+import mu.semte.ch.harvesting.valdiator.service.ResultFileFormat;
+import mu.semte.ch.harvesting.valdiator.service.ValidationProfile;
 import mu.semte.ch.lib.handler.DefaultExceptionHandler;
 import mu.semte.ch.lib.shacl.ShaclService;
 import mu.semte.ch.lib.utils.SparqlClient;
 
-import org.apache.jena.graph.Graph;
-import org.apache.jena.riot.Lang;
 import org.apache.jena.shacl.Shapes;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
@@ -26,8 +26,6 @@ import org.apache.commons.io.IOUtils;
 import org.apache.commons.text.CaseUtils;
 
 import com.github.jsonldjava.shaded.com.google.common.collect.Maps;
-import static mu.semte.ch.lib.utils.ModelUtils.filenameToLang;
-import static mu.semte.ch.lib.utils.ModelUtils.toModel;
 
 @Configuration
 @Slf4j
@@ -37,16 +35,23 @@ public class ApplicationConfig {
     private Resource applicationProfile;
     @Value("${shacl.strictModeFiltering}")
     private boolean strictModeFiltering;
+    @Value("${application.output.format}")
+    private String outputFormat;
+    @Value("${application.output.compression}")
+    private String outputCompression;
 
     @Value("${sparql.queryStore.path:classpath*:sparql}/*.sparql")
     private Resource[] queries;
 
     @Bean
-    public Shapes defaultApplicationProfile() throws IOException {
-        Graph shapesGraph = toModel(applicationProfile.getInputStream(),
-                filenameToLang(applicationProfile.getFilename(), Lang.TURTLE)).getGraph();
-        return Shapes.parse(shapesGraph);
+    public ValidationProfile defaultValidationProfile() throws IOException {
+        return ValidationProfile.parse(IOUtils.toByteArray(applicationProfile.getInputStream()),
+                applicationProfile.getFilename());
+    }
 
+    @Bean
+    public Shapes defaultApplicationProfile(@Autowired ValidationProfile defaultValidationProfile) {
+        return defaultValidationProfile.shapes();
     }
 
     @Bean
@@ -55,6 +60,11 @@ public class ApplicationConfig {
 
     }
 
+    @Bean
+    public ResultFileFormat resultFileFormat() {
+        return ResultFileFormat.of(outputFormat, outputCompression);
+    }
+
     @Bean
     @SuppressWarnings({ "rawtypes", "unchecked" })
     public SparqlQueryStore sparqlQueryLoader() {
@@ -0,0 +1,117 @@
+package mu.semte.ch.harvesting.valdiator.service;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * limits the number of files validated at the same time.
+ * the limit grows by one while sparql updates stay under the target latency,
+ * and is halved as soon as updates get slow or start failing (AIMD).
+ */
+@Component
+@Slf4j
+public class AdaptiveConcurrencyLimiter {
+    private final int minLimit;
+    private final int maxLimit;
+    private final int sampleWindow;
+    private final long targetLatencyNanos;
+    private final double maxErrorRate;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition permitReleased = lock.newCondition();
+    private int limit;
+    private int inFlight;
+    private int samples;
+    private int errors;
+    private long latencySum;
+
+    public AdaptiveConcurrencyLimiter(@Value("${application.validation.minConcurrency}") int minLimit,
+            @Value("${application.validation.maxConcurrency}") int maxLimit,
+            @Value("${application.validation.initialConcurrency}") int initialLimit,
+            @Value("${application.validation.sampleWindow}") int sampleWindow,
+            @Value("${application.validation.targetUpdateLatencyMs}") long targetUpdateLatencyMs,
+            @Value("${application.validation.maxErrorRate}") double maxErrorRate) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+        this.sampleWindow = Math.max(1, sampleWindow);
+        this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetUpdateLatencyMs);
+        this.maxErrorRate = maxErrorRate;
+    }
+
+    public void acquire() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (inFlight >= limit) {
+                permitReleased.await();
+            }
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void release() {
+        lock.lock();
+        try {
+            inFlight--;
+            permitReleased.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void recordUpdate(long latencyNanos, boolean success) {
+        lock.lock();
+        try {
+            samples++;
+            latencySum += latencyNanos;
+            if (!success) {
+                errors++;
+            }
+            if (samples < sampleWindow) {
+                return;
+            }
+            var errorRate = (double) errors / samples;
+            var averageLatency = latencySum / samples;
+            var previous = limit;
+            if (errorRate > maxErrorRate || averageLatency > targetLatencyNanos) {
+                limit = Math.max(minLimit, limit / 2);
+            } else {
+                limit = Math.min(maxLimit, limit + 1);
+            }
+            if (limit != previous) {
+                log.info("concurrency limit {} -> {} (avg update latency {} ms, error rate {})", previous, limit,
+                        TimeUnit.NANOSECONDS.toMillis(averageLatency), errorRate);
+                permitReleased.signalAll();
+            }
+            samples = 0;
+            errors = 0;
+            latencySum = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package mu.semte.ch.harvesting.valdiator.service;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * sends sparql updates over a shared keep-alive http client, each update on its own virtual thread, so the caller
+ * gets a future instead of waiting for the triplestore.
+ * at most maxInFlight updates are sent to an endpoint at the same time, the others wait for a permit.
+ * connection errors, 429 and 5xx responses are retried up to maxRetry times, with an exponential backoff
+ * (with jitter) starting at backoffMs.
+ */
+@Service
+@Slf4j
+public class AsyncSparqlClient {
+    private final ValidationMetrics metrics;
+    private final int maxInFlight;
+    private final int maxRetry;
+    private final long backoffMs;
+    private final Duration timeout;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Map<String, Semaphore> permits = new ConcurrentHashMap<>();
+    private final HttpClient httpClient;
+
+    public AsyncSparqlClient(ValidationMetrics metrics,
+            @Value("${sparql.async.maxInFlight}") int maxInFlight,
+            @Value("${sparql.maxRetry}") int maxRetry,
+            @Value("${sparql.async.backoffMs}") long backoffMs,
+            @Value("${sparql.async.timeoutSeconds}") long timeoutSeconds) {
+        this.metrics = metrics;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.maxRetry = Math.max(0, maxRetry);
+        this.backoffMs = Math.max(1, backoffMs);
+        this.timeout = Duration.ofSeconds(timeoutSeconds);
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .executor(executor)
+                .build();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    public CompletableFuture<Void> update(String queryName, String update, String endpoint) {
+        return CompletableFuture.runAsync(() -> send(queryName, update, endpoint), executor);
+    }
+
+    private void send(String queryName, String update, String endpoint) {
+        var permit = permits.computeIfAbsent(endpoint, e -> new Semaphore(maxInFlight, true));
+        var request = HttpRequest.newBuilder(URI.create(endpoint))
+                .timeout(timeout)
+                .header("Content-Type", "application/x-www-form-urlencoded; charset=UTF-8")
+                .header("Accept", "application/sparql-results+json")
+                .header("mu-auth-sudo", "true")
+                .POST(HttpRequest.BodyPublishers.ofString("update=" + URLEncoder.encode(update,
+                        StandardCharsets.UTF_8)))
+                .build();
+        for (var attempt = 0; ; attempt++) {
+            try {
+                permit.acquire();
+                try {
+                    metrics.sparql(queryName, "update", () -> attempt(request));
+                    return;
+                } finally {
+                    permit.release();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while sending sparql update " + queryName, e);
+            } catch (RetryableException e) {
+                if (attempt >= maxRetry) {
+                    throw new IllegalStateException("sparql update %s failed after %d attempt(s)"
+                            .formatted(queryName, attempt + 1), e);
+                }
+                var delay = backoffMs << Math.min(attempt, 16);
+                delay += ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+                log.warn("sparql update {} failed ({}), retrying in {} ms", queryName, e.getMessage(), delay);
+                sleep(delay);
+            }
+        }
+    }
+
+    private Void attempt(HttpRequest request) {
+        HttpResponse<String> response;
+        try {
+            response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        } catch (IOException e) {
+            throw new RetryableException(e.toString(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        var status = response.statusCode();
+        if (status == 429 || status >= 500) {
+            throw new RetryableException("status " + status, null);
+        }
+        if (status >= 300) {
+            throw new IllegalStateException("sparql update failed with status %d: %s"
+                    .formatted(status, StringUtils.abbreviate(response.body(), 1024)));
+        }
+        return null;
+    }
+
+    private void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class RetryableException extends RuntimeException {
+        RetryableException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package mu.semte.ch.harvesting.valdiator.service;
+
+import static mu.semte.ch.harvesting.valdiator.Constants.SHAPES_HASH;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import mu.semte.ch.lib.utils.ModelUtils;
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFParser;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.apache.jena.shacl.ValidationReport;
+import org.apache.jena.shacl.validation.ReportEntry;
+import org.apache.jena.shacl.vocabulary.SHACL;
+import org.apache.jena.sparql.graph.GraphFactory;
+import org.apache.jena.vocabulary.RDF;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * validates a file chunk by chunk (see {@link SubjectChunker}) instead of loading it in a single model.
+ * a first pass indexes the rdf:type of every iri subject, so that sh:class constraints on values owned
+ * by another chunk can still be evaluated. report entries about resources owned by another chunk are dropped,
+ * they are reported when that chunk is validated.
+ * the same pass checks that the triples of every iri subject end up in a single chunk. when they do not, e.g. a
+ * subject whose triples are spread over the file, the file is not chunked and is validated as a whole, as
+ * validating a subject in two parts gives wrong violations (sh:minCount, sh:maxCount, sh:node...).
+ * the index holds at most typeIndexMaxSubjects subjects, which bounds the memory of a chunked validation.
+ * beyond that, the types of the subjects not indexed are only known within their own chunk, and a sh:class
+ * violation on a value of another chunk that is not indexed is dropped rather than reported on a guess.
+ */
+@Service
+@Slf4j
+public class ChunkedValidationService {
+    private final ShapeValidationService shapeValidationService;
+    private final TaskService taskService;
+    private final ValidationMetrics metrics;
+    @Value("${shacl.strictModeFiltering}")
+    private boolean strictModeFiltering;
+    @Value("${shacl.streaming.chunkSize}")
+    private int chunkSize;
+    @Value("${shacl.streaming.typeIndexMaxSubjects}")
+    private int typeIndexMaxSubjects;
+
+    public ChunkedValidationService(ShapeValidationService shapeValidationService, TaskService taskService,
+            ValidationMetrics metrics) {
+        this.shapeValidationService = shapeValidationService;
+        this.taskService = taskService;
+        this.metrics = metrics;
+    }
+
+    /**
+     * validates a file indexed by {@link #index(File)}. onReport receives the report of every non conforming chunk.
+     * the merged report is only written if keepReport.
+     */
+    @SneakyThrows
+    public FileValidationResult validate(ValidationProfile profile, String jobId, String derivedFrom, File input,
+            TypeIndex types, boolean keepReport, Consumer<ValidationReport> onReport) {
+        File validFile;
+        File errorFile;
+        File reportFile;
+        ChunkReport chunkReport;
+        try (var valid = taskService.openResultFile(jobId);
+                var error = taskService.openResultFile(jobId);
+                var report = keepReport ? taskService.openResultFile(jobId) : null) {
+            validFile = valid.getFile();
+            errorFile = error.getFile();
+            reportFile = report != null ? report.getFile() : null;
+            chunkReport = new ChunkReport(report, profile.hash());
+            RDFParser.source(input.toPath()).lang(Lang.TURTLE)
+                    .parse(new SubjectChunker(chunkSize,
+                            chunk -> validateChunk(profile, chunk, types, valid, error, chunkReport, onReport)));
+            chunkReport.finish();
+            metrics.triples(valid.getCount(), error.getCount());
+        }
+        log.info("triples conforms: {}", chunkReport.conforms);
+        if (chunkReport.conforms) {
+            errorFile.delete();
+            if (reportFile != null) {
+                reportFile.delete();
+            }
+            return new FileValidationResult(derivedFrom, true, validFile, null, null);
+        }
+        return new FileValidationResult(derivedFrom, false, validFile, errorFile, reportFile);
+    }
+
+    /**
+     * the types of the iri subjects of a file, complete unless there were more than typeIndexMaxSubjects.
+     */
+    record TypeIndex(Map<Node, List<Node>> types, boolean complete) {
+        boolean isTyped(Node node) {
+            return types.containsKey(node);
+        }
+    }
+
+    /**
+     * the first pass over a file, empty when the file can not be validated in chunks because the triples of an iri
+     * subject would end up in two chunks.
+     */
+    public Optional<TypeIndex> index(File input) {
+        var types = new HashMap<Node, List<Node>>();
+        var complete = new boolean[] { true };
+        // cuts the same chunks as the validation, only to check them
+        var chunker = new SubjectChunker(chunkSize, true, chunk -> {
+        });
+        RDFParser.source(input.toPath()).lang(Lang.TURTLE).parse(new StreamRDFBase() {
+            @Override
+            public void triple(Triple triple) {
+                if (chunker.splitsSubject()) {
+                    return;
+                }
+                chunker.triple(triple);
+                if (!triple.getSubject().isURI() || !RDF.Nodes.type.equals(triple.getPredicate())) {
+                    return;
+                }
+                var subjectTypes = types.get(triple.getSubject());
+                if (subjectTypes == null) {
+                    if (types.size() >= typeIndexMaxSubjects) {
+                        complete[0] = false;
+                        return;
+                    }
+                    subjectTypes = new ArrayList<>(1);
+                    types.put(triple.getSubject(), subjectTypes);
+                }
+                subjectTypes.add(triple.getObject());
+            }
+        });
+        if (chunker.splitsSubject()) {
+            log.warn("the triples of a subject of {} are not contiguous, validating it as a whole", input);
+            return Optional.empty();
+        }
+        if (!complete[0]) {
+            log.warn("more than {} typed subjects in {}, sh:class is only checked against the indexed ones",
+                    typeIndexMaxSubjects, input);
+        }
+        return Optional.of(new TypeIndex(types, complete[0]));
+    }
+
+    private void validateChunk(ValidationProfile profile, List<Triple> chunk, TypeIndex types, TripleFileWriter valid,
+            TripleFileWriter error, ChunkReport chunkReport, Consumer<ValidationReport> onReport) {
+        FileTaskScope.checkCancelled();
+        var owned = new HashSet<Node>();
+        var graph = GraphFactory.createDefaultGraph();
+        for (var triple : chunk) {
+            owned.add(triple.getSubject());
+            graph.add(triple);
+        }
+        for (var triple : chunk) {
+            var object = triple.getObject();
+            if (object.isURI() && !owned.contains(object)) {
+                types.types().getOrDefault(object, List.of())
+                        .forEach(type -> graph.add(Triple.create(object, RDF.Nodes.type, type)));
+            }
+        }
+        var report = ownedEntries(shapeValidationService.validate(profile, graph), owned, types);
+        metrics.stage("partition",
+                () -> new TriplePartitioner(report, strictModeFiltering).partition(chunk.iterator(), valid, error));
+        if (!report.conforms()) {
+            chunkReport.add(report);
+            onReport.accept(report);
+        }
+    }
+
+    private ValidationReport ownedEntries(ValidationReport report, Set<Node> owned, TypeIndex types) {
+        if (report.conforms()) {
+            return report;
+        }
+        var builder = ValidationReport.create();
+        report.getEntries().stream()
+                .filter(entry -> owned.contains(entry.focusNode())
+                        || (!entry.focusNode().isBlank() && !types.isTyped(entry.focusNode())))
+                .filter(entry -> types.complete() || !isUnresolvedClass(entry, owned, types))
+                .forEach(builder::addReportEntry);
+        return builder.build();
+    }
+
+    /**
+     * a sh:class violation on a value of another chunk whose types were not indexed.
+     */
+    private boolean isUnresolvedClass(ReportEntry entry, Set<Node> owned, TypeIndex types) {
+        var value = entry.value();
+        return entry.constraint() != null
+                && SHACL.ClassConstraintComponent.equals(entry.constraint().getComponent())
+                && value != null && value.isURI() && !owned.contains(value) && !types.isTyped(value);
+    }
+
+    /**
+     * merges the reports of all chunks into a single sh:ValidationReport, only tracks conformance if out is null.
+     */
+    private static class ChunkReport {
+        private final TripleFileWriter out;
+        private final String shapesHash;
+        private Node reportNode;
+        private boolean conforms = true;
+
+        ChunkReport(TripleFileWriter out, String shapesHash) {
+            this.out = out;
+            this.shapesHash = shapesHash;
+        }
+
+        void add(ValidationReport report) {
+            conforms = false;
+            if (out == null) {
+                return;
+            }
+            var model = ModelUtils.replaceAnonNodes(report.getModel());
+            var graph = model.getGraph();
+            var chunkReportNode = graph.find(Node.ANY, RDF.Nodes.type, SHACL.ValidationReport)
+                    .mapWith(Triple::getSubject)
+                    .nextOptional()
+                    .orElse(null);
+            if (reportNode == null) {
+                reportNode = chunkReportNode;
+            }
+            graph.find().forEachRemaining(triple -> {
+                if (!triple.getSubject().equals(chunkReportNode)) {
+                    out.triple(triple);
+                } else if (SHACL.result.equals(triple.getPredicate())) {
+                    out.triple(Triple.create(reportNode, SHACL.result, triple.getObject()));
+                }
+            });
+        }
+
+        void finish() {
+            if (out == null || reportNode == null) {
+                return;
+            }
+            out.triple(Triple.create(reportNode, RDF.Nodes.type, SHACL.ValidationReport));
+            out.triple(Triple.create(reportNode, SHACL.conforms,
+                    NodeFactory.createLiteral(Boolean.toString(conforms), XSDDatatype.XSDboolean)));
+            out.triple(Triple.create(reportNode, NodeFactory.createURI(SHAPES_HASH),
+                    NodeFactory.createLiteral(shapesHash)));
+        }
+    }
+}
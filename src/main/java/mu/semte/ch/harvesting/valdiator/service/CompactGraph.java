@@ -0,0 +1,353 @@
+package mu.semte.ch.harvesting.valdiator.service;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import org.apache.jena.graph.Capabilities;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.graph.impl.AllCapabilities;
+import org.apache.jena.graph.impl.GraphBase;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.apache.jena.shared.PrefixMapping;
+import org.apache.jena.shared.impl.PrefixMappingImpl;
+import org.apache.jena.util.iterator.ExtendedIterator;
+import org.apache.jena.util.iterator.NiceIterator;
+
+/**
+ * read-only graph of a parsed input file. every distinct node gets an int id, and the triples are three int arrays
+ * sorted in spo order, with pos and osp orders as permutations of them, i.e. five ints per triple instead of the
+ * triple and index map entries of a GraphMem. every find pattern is a range of one of the three orders.
+ * nodes are matched by term equality, not by literal value.
+ */
+public class CompactGraph extends GraphBase {
+    private static final int ANY = -1;
+    private static final int MISSING = -2;
+    private static final Capabilities READ_ONLY = new AllCapabilities() {
+        @Override
+        public boolean addAllowed() {
+            return false;
+        }
+
+        @Override
+        public boolean deleteAllowed() {
+            return false;
+        }
+
+        @Override
+        public boolean handlesLiteralTyping() {
+            return false;
+        }
+    };
+
+    private final NodeDictionary dictionary;
+    private final int size;
+    private final int[] subjects;
+    private final int[] predicates;
+    private final int[] objects;
+    private final int[] pos;
+    private final int[] osp;
+    private final PrefixMapping prefixes;
+
+    private CompactGraph(NodeDictionary dictionary, int size, int[] subjects, int[] predicates, int[] objects,
+            int[] pos, int[] osp, PrefixMapping prefixes) {
+        this.dictionary = dictionary;
+        this.size = size;
+        this.subjects = subjects;
+        this.predicates = predicates;
+        this.objects = objects;
+        this.pos = pos;
+        this.osp = osp;
+        this.prefixes = prefixes;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public Capabilities getCapabilities() {
+        return READ_ONLY;
+    }
+
+    @Override
+    protected PrefixMapping createPrefixMapping() {
+        return prefixes;
+    }
+
+    @Override
+    protected int graphBaseSize() {
+        return size;
+    }
+
+    @Override
+    protected ExtendedIterator<Triple> graphBaseFind(Triple pattern) {
+        var s = id(pattern.getMatchSubject());
+        var p = id(pattern.getMatchPredicate());
+        var o = id(pattern.getMatchObject());
+        if (s == MISSING || p == MISSING || o == MISSING) {
+            return NiceIterator.emptyIterator();
+        }
+        if (s != ANY && (p != ANY || o == ANY)) {
+            return range(null, subjects, predicates, objects, s, p, o);
+        }
+        if (s != ANY) {
+            return range(osp, objects, subjects, predicates, o, s, ANY);
+        }
+        if (p != ANY) {
+            return range(pos, predicates, objects, subjects, p, o, ANY);
+        }
+        if (o != ANY) {
+            return range(osp, objects, subjects, predicates, o, ANY, ANY);
+        }
+        return new RangeIterator(null, 0, size);
+    }
+
+    @Override
+    protected boolean graphBaseContains(Triple triple) {
+        var it = graphBaseFind(triple);
+        try {
+            return it.hasNext();
+        } finally {
+            it.close();
+        }
+    }
+
+    private int id(Node node) {
+        if (node == null) {
+            return ANY;
+        }
+        var id = dictionary.id(node);
+        return id < 0 ? MISSING : id;
+    }
+
+    /**
+     * the positions of an order (null for spo) whose keys equal the given ids, the ids after the first ANY are
+     * ignored.
+     */
+    private ExtendedIterator<Triple> range(int[] order, int[] first, int[] second, int[] third, int a, int b,
+            int c) {
+        var from = lowerBound(order, first, 0, size, a);
+        var to = lowerBound(order, first, from, size, a + 1);
+        if (b != ANY) {
+            var bFrom = lowerBound(order, second, from, to, b);
+            to = lowerBound(order, second, bFrom, to, b + 1);
+            from = bFrom;
+            if (c != ANY) {
+                var cFrom = lowerBound(order, third, from, to, c);
+                to = lowerBound(order, third, cFrom, to, c + 1);
+                from = cFrom;
+            }
+        }
+        return from >= to ? NiceIterator.emptyIterator() : new RangeIterator(order, from, to);
+    }
+
+    private static int lowerBound(int[] order, int[] keys, int from, int to, int value) {
+        var low = from;
+        var high = to;
+        while (low < high) {
+            var mid = (low + high) >>> 1;
+            if (keys[order == null ? mid : order[mid]] < value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private class RangeIterator extends NiceIterator<Triple> {
+        private final int[] order;
+        private final int to;
+        private int position;
+
+        private RangeIterator(int[] order, int from, int to) {
+            this.order = order;
+            this.position = from;
+            this.to = to;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return position < to;
+        }
+
+        @Override
+        public Triple next() {
+            if (position >= to) {
+                throw new NoSuchElementException();
+            }
+            var triple = order == null ? position : order[position];
+            position++;
+            return Triple.create(dictionary.node(subjects[triple]), dictionary.node(predicates[triple]),
+                    dictionary.node(objects[triple]));
+        }
+    }
+
+    /**
+     * ids of the nodes, in an open addressing table of ids.
+     */
+    private static class NodeDictionary {
+        private Node[] nodes = new Node[1024];
+        private int[] table = new int[2048];
+        private int count;
+
+        Node node(int id) {
+            return nodes[id];
+        }
+
+        int id(Node node) {
+            var mask = table.length - 1;
+            for (var slot = hash(node) & mask; ; slot = (slot + 1) & mask) {
+                var id = table[slot] - 1;
+                if (id < 0) {
+                    return -1;
+                }
+                if (nodes[id].equals(node)) {
+                    return id;
+                }
+            }
+        }
+
+        int add(Node node) {
+            var mask = table.length - 1;
+            var slot = hash(node) & mask;
+            for (; table[slot] != 0; slot = (slot + 1) & mask) {
+                if (nodes[table[slot] - 1].equals(node)) {
+                    return table[slot] - 1;
+                }
+            }
+            if (count == nodes.length) {
+                nodes = Arrays.copyOf(nodes, count * 2);
+            }
+            nodes[count] = node;
+            table[slot] = ++count;
+            if (count * 2 > table.length) {
+                rehash();
+            }
+            return count - 1;
+        }
+
+        private void rehash() {
+            table = new int[table.length * 2];
+            var mask = table.length - 1;
+            for (var id = 0; id < count; id++) {
+                var slot = hash(nodes[id]) & mask;
+                while (table[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = id + 1;
+            }
+        }
+
+        void trim() {
+            nodes = Arrays.copyOf(nodes, count);
+        }
+
+        private static int hash(Node node) {
+            var h = node.hashCode();
+            return h ^ (h >>> 16);
+        }
+    }
+
+    /**
+     * collects the triples of a parser, duplicates are dropped by {@link #build()}.
+     */
+    public static class Builder extends StreamRDFBase {
+        private final NodeDictionary dictionary = new NodeDictionary();
+        private final PrefixMapping prefixes = new PrefixMappingImpl();
+        private int[] subjects = new int[1024];
+        private int[] predicates = new int[1024];
+        private int[] objects = new int[1024];
+        private int count;
+
+        @Override
+        public void triple(Triple triple) {
+            if (count == subjects.length) {
+                subjects = Arrays.copyOf(subjects, count * 2);
+                predicates = Arrays.copyOf(predicates, count * 2);
+                objects = Arrays.copyOf(objects, count * 2);
+            }
+            subjects[count] = dictionary.add(triple.getSubject());
+            predicates[count] = dictionary.add(triple.getPredicate());
+            objects[count] = dictionary.add(triple.getObject());
+            count++;
+        }
+
+        @Override
+        public void prefix(String prefix, String iri) {
+            prefixes.setNsPrefix(prefix, iri);
+        }
+
+        public CompactGraph build() {
+            var spo = sort(identity(count), subjects, predicates, objects);
+            var s = new int[count];
+            var p = new int[count];
+            var o = new int[count];
+            var size = 0;
+            for (var i = 0; i < count; i++) {
+                var t = spo[i];
+                if (size > 0 && s[size - 1] == subjects[t] && p[size - 1] == predicates[t]
+                        && o[size - 1] == objects[t]) {
+                    continue;
+                }
+                s[size] = subjects[t];
+                p[size] = predicates[t];
+                o[size] = objects[t];
+                size++;
+            }
+            s = Arrays.copyOf(s, size);
+            p = Arrays.copyOf(p, size);
+            o = Arrays.copyOf(o, size);
+            var pos = sort(identity(size), p, o, s);
+            var osp = sort(identity(size), o, s, p);
+            dictionary.trim();
+            return new CompactGraph(dictionary, size, s, p, o, pos, osp, prefixes);
+        }
+
+        private static int[] identity(int size) {
+            var order = new int[size];
+            for (var i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            return order;
+        }
+
+        /**
+         * sorts the positions by (a, b, c) with a bottom-up merge sort, without boxing.
+         */
+        private static int[] sort(int[] order, int[] a, int[] b, int[] c) {
+            var source = order;
+            var target = new int[order.length];
+            for (var width = 1; width < order.length; width *= 2) {
+                for (var low = 0; low < order.length; low += 2 * width) {
+                    var mid = Math.min(low + width, order.length);
+                    var high = Math.min(low + 2 * width, order.length);
+                    var i = low;
+                    var j = mid;
+                    var k = low;
+                    while (i < mid && j < high) {
+                        target[k++] = compare(source[i], source[j], a, b, c) <= 0 ? source[i++] : source[j++];
+                    }
+                    while (i < mid) {
+                        target[k++] = source[i++];
+                    }
+                    while (j < high) {
+                        target[k++] = source[j++];
+                    }
+                }
+                var swap = source;
+                source = target;
+                target = swap;
+            }
+            return source;
+        }
+
+        private static int compare(int x, int y, int[] a, int[] b, int[] c) {
+            var cmp = Integer.compare(a[x], a[y]);
+            if (cmp == 0) {
+                cmp = Integer.compare(b[x], b[y]);
+            }
+            return cmp == 0 ? Integer.compare(c[x], c[y]) : cmp;
+        }
+    }
+}
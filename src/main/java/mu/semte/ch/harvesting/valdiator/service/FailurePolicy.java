@@ -0,0 +1,31 @@
+package mu.semte.ch.harvesting.valdiator.service;
+
+/**
+ * when the files of a task failing make the task fail.
+ * <ul>
+ * <li>fail-fast: the first failed file fails the task</li>
+ * <li>max-errors: up to maxFileErrors files may fail, one more fails the task</li>
+ * <li>best-effort: every file is tried, the task does not fail because of its files</li>
+ * </ul>
+ * the failures of a task that does not fail are still reported as errors of the task.
+ */
+public enum FailurePolicy {
+    FAIL_FAST, MAX_ERRORS, BEST_EFFORT;
+
+    public static FailurePolicy of(String name) {
+        return switch (name) {
+            case "fail-fast" -> FAIL_FAST;
+            case "max-errors" -> MAX_ERRORS;
+            case "best-effort" -> BEST_EFFORT;
+            default -> throw new IllegalArgumentException("unknown failure policy '%s'".formatted(name));
+        };
+    }
+
+    public boolean givesUp(int failures, int maxErrors) {
+        return switch (this) {
+            case FAIL_FAST -> failures > 0;
+            case MAX_ERRORS -> failures > maxErrors;
+            case BEST_EFFORT -> false;
+        };
+    }
+}
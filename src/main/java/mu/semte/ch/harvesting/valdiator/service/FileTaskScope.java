@@ -0,0 +1,134 @@
+package mu.semte.ch.harvesting.valdiator.service;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Phaser;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+
+/**
+ * the per file jobs of a task, forked on the {@link FileValidationExecutor}. the failed files are collected, and once
+ * the failure policy gives up on the task, the jobs still waiting or running are cancelled and no job is forked
+ * anymore. closing the scope cancels the jobs left and waits for them, so that no file outlives its task.
+ * a job only counts as done once its failure is recorded, so {@link #join()} sees every failure.
+ */
+@Slf4j
+public class FileTaskScope implements AutoCloseable {
+    private static final int MAX_REPORTED_FAILURES = 10;
+
+    private final FileValidationExecutor executor;
+    private final FailurePolicy policy;
+    private final int maxErrors;
+    private final Set<FileValidationExecutor.FileJob> jobs = ConcurrentHashMap.newKeySet();
+    private final Queue<String> failures = new ConcurrentLinkedQueue<>();
+    // one party for the owner of the scope, and one per job until its outcome is recorded
+    private final Phaser outstanding = new Phaser(1);
+    private volatile int failureCount;
+    private volatile boolean shutdown;
+
+    public FileTaskScope(FileValidationExecutor executor, FailurePolicy policy, int maxErrors) {
+        this.executor = executor;
+        this.policy = policy;
+        this.maxErrors = maxErrors;
+    }
+
+    /**
+     * throws when the job of the current thread was cancelled, to stop between two stages of a file.
+     */
+    public static void checkCancelled() {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("the task of this file was given up");
+        }
+    }
+
+    /**
+     * submits a file, blocks while the queue of the executor is full. does nothing once the scope is shut down.
+     */
+    public <T> void fork(String file, Supplier<T> prefetch, Consumer<T> job) throws InterruptedException {
+        if (shutdown) {
+            return;
+        }
+        outstanding.register();
+        FileValidationExecutor.FileJob fileJob;
+        try {
+            fileJob = executor.submit(prefetch, job);
+        } catch (InterruptedException | RuntimeException e) {
+            outstanding.arriveAndDeregister();
+            throw e;
+        }
+        jobs.add(fileJob);
+        fileJob.done().whenComplete((ignored, e) -> {
+            try {
+                jobs.remove(fileJob);
+                if (e != null) {
+                    failed(file, e);
+                }
+            } finally {
+                outstanding.arriveAndDeregister();
+            }
+        });
+        if (shutdown) {
+            fileJob.cancel();
+        }
+    }
+
+    private synchronized void failed(String file, Throwable e) {
+        if (shutdown) {
+            log.debug("file {} stopped after its task was given up", file, e);
+            return;
+        }
+        log.error("could not validate file {}", file, e);
+        var count = ++failureCount;
+        if (count <= MAX_REPORTED_FAILURES) {
+            failures.add("%s: %s".formatted(file, ExceptionUtils.getRootCauseMessage(e)));
+        }
+        if (policy.givesUp(count, maxErrors)) {
+            log.warn("giving up after {} failed file(s) ({})", count, policy);
+            shutdown();
+        }
+    }
+
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    /**
+     * cancels the jobs that are waiting or running.
+     */
+    public void shutdown() {
+        shutdown = true;
+        jobs.forEach(FileValidationExecutor.FileJob::cancel);
+    }
+
+    /**
+     * waits until every forked job is done and its failure, if any, is recorded.
+     */
+    public void join() throws InterruptedException {
+        outstanding.awaitAdvanceInterruptibly(outstanding.arrive());
+    }
+
+    public int getFailureCount() {
+        return failureCount;
+    }
+
+    /**
+     * the first failures, as file and root cause.
+     */
+    public List<String> getFailures() {
+        return List.copyOf(failures);
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        if (outstanding.getRegisteredParties() > 1) {
+            shutdown();
+            join();
+        }
+    }
+}
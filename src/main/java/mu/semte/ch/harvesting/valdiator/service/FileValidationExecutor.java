@@ -0,0 +1,121 @@
+package mu.semte.ch.harvesting.valdiator.service;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * runs per file work on virtual threads in two stages.
+ * the prefetch stage (reading and parsing) runs up to parseConcurrency files at a time, ahead of the validation,
+ * the validation stage runs at most {@link AdaptiveConcurrencyLimiter#getLimit()} files at a time.
+ * once the queue is full, {@link #submit(Supplier, Consumer)} blocks the caller until a file is done,
+ * which also bounds the number of parsed files waiting for validation.
+ * a prefetched input that is {@link AutoCloseable} is closed once its job is done, or if it never runs.
+ * the slots of a file are released before its {@link FileJob} is done.
+ */
+@Component
+@Slf4j
+public class FileValidationExecutor {
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final Semaphore queueSlots;
+    private final Semaphore parseSlots;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger prefetched = new AtomicInteger();
+
+    public FileValidationExecutor(AdaptiveConcurrencyLimiter limiter,
+            @Value("${application.validation.maxConcurrency}") int maxConcurrency,
+            @Value("${application.validation.queueCapacity}") int queueCapacity,
+            @Value("${application.validation.parseConcurrency}") int parseConcurrency) {
+        this.limiter = limiter;
+        this.queueSlots = new Semaphore(Math.max(1, maxConcurrency) + Math.max(0, queueCapacity));
+        this.parseSlots = new Semaphore(Math.max(1, parseConcurrency));
+    }
+
+    public <T> FileJob submit(Supplier<T> prefetch, Consumer<T> job) throws InterruptedException {
+        queueSlots.acquire();
+        queued.incrementAndGet();
+        var fileJob = new FileJob();
+        fileJob.thread = Thread.ofVirtual().unstarted(() -> {
+            var running = false;
+            T input = null;
+            Throwable failure = null;
+            try {
+                parseSlots.acquire();
+                try {
+                    input = prefetch.get();
+                } finally {
+                    parseSlots.release();
+                }
+                prefetched.incrementAndGet();
+                try {
+                    limiter.acquire();
+                } finally {
+                    prefetched.decrementAndGet();
+                }
+                running = true;
+                queued.decrementAndGet();
+                job.accept(input);
+            } catch (Throwable e) {
+                failure = e;
+            } finally {
+                if (running) {
+                    limiter.release();
+                } else {
+                    queued.decrementAndGet();
+                }
+                close(input);
+                queueSlots.release();
+            }
+            if (failure == null) {
+                fileJob.done.complete(null);
+            } else {
+                fileJob.done.completeExceptionally(failure);
+            }
+        });
+        fileJob.thread.start();
+        return fileJob;
+    }
+
+    /**
+     * a submitted file, done once its thread is done, whether it completed, failed or was cancelled.
+     */
+    public static class FileJob {
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private Thread thread;
+
+        public CompletableFuture<Void> done() {
+            return done;
+        }
+
+        /**
+         * interrupts the thread of the file: waiting for a slot or the heap budget, and reading the file, fail right
+         * away, the stages of the file check for it with {@link FileTaskScope#checkCancelled()}.
+         */
+        public void cancel() {
+            thread.interrupt();
+        }
+    }
+
+    private void close(Object input) {
+        if (input instanceof AutoCloseable closeable) {
+            try {
+                closeable.close();
+            } catch (Exception e) {
+                log.warn("could not close {}", input, e);
+            }
+        }
+    }
+
+    public int getQueueDepth() {
+        return queued.get();
+    }
+
+    public int getPrefetched() {
+        return prefetched.get();
+    }
+}
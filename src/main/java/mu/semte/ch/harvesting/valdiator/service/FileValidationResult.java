@@ -0,0 +1,11 @@
+package mu.semte.ch.harvesting.valdiator.service;
+
+import java.io.File;
+
+/**
+ * output files of a validated input file, errorTriples and report are null when the file conforms.
+ * the report is also null when it is neither registered nor cached.
+ */
+public record FileValidationResult(String derivedFrom, boolean conforms, File validTriples, File errorTriples,
+        File report) {
+}
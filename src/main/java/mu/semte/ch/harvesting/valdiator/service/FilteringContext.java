@@ -0,0 +1,26 @@
+package mu.semte.ch.harvesting.valdiator.service;
+
+import mu.semte.ch.harvesting.valdiator.service.TaskService.TaskWithJobId;
+import mu.semte.ch.lib.dto.DataContainer;
+
+/**
+ * state shared by the files of a filtering run, xlsReport, summary and interner are null when disabled.
+ * profile is the validation profile of the task, for the whole run. shard is the index of the shard the run filters,
+ * null when the task is not sharded.
+ */
+public record FilteringContext(TaskWithJobId task, ValidationProfile profile, DataContainer inputContainer, DataContainer fileContainer,
+        DataContainer graphContainer, SparqlUpdateBatch batch, XlsReport xlsReport, ValidationSummary summary,
+        NodeInterner interner, Integer shard) {
+
+    /**
+     * the logical name of a file about the whole run, e.g. validation-summary-shard-1.ttl for shard 1.
+     * the files of the shards of a task are not merged, a task has one per shard.
+     */
+    public String runFileName(String name) {
+        if (shard == null) {
+            return name;
+        }
+        var dot = name.lastIndexOf('.');
+        return "%s-shard-%d%s".formatted(name.substring(0, dot), shard, name.substring(dot));
+    }
+}
@@ -1,15 +1,31 @@
 package mu.semte.ch.harvesting.valdiator.service;
 
-import java.util.ArrayList;
+import static mu.semte.ch.harvesting.valdiator.Constants.ERROR_TRIPLES_FILE_NAME;
+import static mu.semte.ch.harvesting.valdiator.Constants.SHAPES_HASH;
+import static mu.semte.ch.harvesting.valdiator.Constants.VALIDATION_REPORT_FILE_NAME;
+import static mu.semte.ch.harvesting.valdiator.Constants.VALID_TRIPLES_FILE_NAME;
+
+import java.io.File;
 import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
+import mu.semte.ch.harvesting.valdiator.service.TaskService.PathByDerived;
 import mu.semte.ch.harvesting.valdiator.service.TaskService.TaskWithJobId;
 import mu.semte.ch.lib.dto.DataContainer;
-import mu.semte.ch.lib.shacl.ShaclService;
 import mu.semte.ch.lib.utils.ModelUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
 import org.apache.jena.rdf.model.Model;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.RDFParser;
+import org.apache.jena.riot.system.StreamRDFBase;
 import org.apache.jena.shacl.ValidationReport;
+import org.apache.jena.shacl.vocabulary.SHACL;
+import org.apache.jena.vocabulary.RDF;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
@@ -17,116 +33,483 @@ import org.springframework.stereotype.Service;
 @Slf4j
 public class FilteringService {
 
-    private final ShaclService shaclService;
+    private final ShapeValidationService shapeValidationService;
     private final TaskService taskService;
-    @Value("${sparql.defaultLimitSize}")
-    private int defaultLimitSize;
+    private final FileValidationExecutor fileValidationExecutor;
+    private final ChunkedValidationService chunkedValidationService;
+    private final ValidationCache validationCache;
+    private final ValidationProfileRegistry validationProfileRegistry;
+    private final ValidationMetrics metrics;
+    private final HeapBudget heapBudget;
+    private final IncrementalValidationService incrementalValidationService;
+    private final TaskShardService taskShardService;
+    private final XlsReportService xlsReportService;
+    private final ValidationSummaryService validationSummaryService;
+    @Value("${shacl.strictModeFiltering}")
+    private boolean strictModeFiltering;
+    @Value("${shacl.streaming.enabled}")
+    private boolean streamingEnabled;
+    @Value("${shacl.streaming.thresholdBytes}")
+    private long streamingThresholdBytes;
+    @Value("${shacl.reuseUpstreamReports}")
+    private String reuseUpstreamReports;
+    @Value("${report.keepFileReports}")
+    private boolean keepFileReports;
+    @Value("${application.validation.internNodes}")
+    private boolean internNodes;
+    @Value("${application.validation.failurePolicy}")
+    private String failurePolicy;
+    @Value("${application.validation.maxFileErrors}")
+    private int maxFileErrors;
 
-    public FilteringService(ShaclService shaclService, TaskService taskService) {
-        this.shaclService = shaclService;
+    public FilteringService(ShapeValidationService shapeValidationService, TaskService taskService,
+            FileValidationExecutor fileValidationExecutor, ChunkedValidationService chunkedValidationService,
+            ValidationCache validationCache, ValidationProfileRegistry validationProfileRegistry, ValidationMetrics metrics,
+            HeapBudget heapBudget, IncrementalValidationService incrementalValidationService,
+            TaskShardService taskShardService, XlsReportService xlsReportService,
+            ValidationSummaryService validationSummaryService) {
+        this.shapeValidationService = shapeValidationService;
         this.taskService = taskService;
+        this.fileValidationExecutor = fileValidationExecutor;
+        this.chunkedValidationService = chunkedValidationService;
+        this.validationCache = validationCache;
+        this.validationProfileRegistry = validationProfileRegistry;
+        this.metrics = metrics;
+        this.heapBudget = heapBudget;
+        this.incrementalValidationService = incrementalValidationService;
+        this.taskShardService = taskShardService;
+        this.xlsReportService = xlsReportService;
+        this.validationSummaryService = validationSummaryService;
     }
 
-    @Value("${application.sleepBetweenJob}")
-    private int sleepMs;
-
-    private void sleep(int sleepMs) {
-        try {
-            log.info("sleep for {} ms to let virtuoso breathe", sleepMs);
-            Thread.sleep(sleepMs);
-        } catch (Throwable e) {
-            log.error("could not sleep", e);
-        }
-    };
-
+    /**
+     * filters the files of the task. true when the task is complete, false when shards of the task are still
+     * filtered by other replicas.
+     */
     @SneakyThrows
-    public void runFilterPipeline(TaskWithJobId taskWithJobId) {
+    public boolean runFilterPipeline(TaskWithJobId taskWithJobId) {
         var task = taskWithJobId.task();
         var inputContainer = taskService.selectInputContainer(task).get(0);
         log.debug("input container: {}", inputContainer);
-        var countTriples = taskService.countTriplesFromFileInputContainer(
-                inputContainer.getGraphUri());
-        var pagesCount = countTriples > defaultLimitSize ? countTriples / defaultLimitSize : 1;
-
-        var fileContainer = DataContainer.builder().build();
-        var graphContainer = DataContainer.builder().build();
-        var resultContainer = DataContainer.builder().graphUri(graphContainer.getUri()).build();
-
-        for (var i = 0; i <= pagesCount; i++) {
-            var threads = new ArrayList<Thread>();
-            var offset = i * defaultLimitSize;
-            var importedTriples = taskService.fetchTripleFromFileInputContainer(
-                    inputContainer.getGraphUri(), defaultLimitSize, offset);
-            for (var mdb : importedTriples) {
-                threads.add(Thread.startVirtualThread(() -> {
-                    // var report = taskService.fetchValidationGraphByDerivedFrom(
-                    // inputContainer.getValidationGraphUri(),
-                    // mdb.derivedFrom());
-
-                    log.info("generate validation reports...");
-                    var report = shaclService.validate(mdb.model().getGraph());
-                    log.info("triples conforms: {}", report.conforms());
-
-                    var validTriples = writeValidTriples(taskWithJobId, fileContainer, report, mdb);
-
-                    var filteredGraph = validTriples.getKey().getGraphUri();
-
-                    taskService.appendTaskResultFile(
-                            taskWithJobId,
-                            graphContainer.toBuilder().graphUri(filteredGraph).build());
-                    if (!report.conforms()) {
-                        var reportModel = ModelUtils.replaceAnonNodes(report.getModel());
-                        writeReport(taskWithJobId, fileContainer, reportModel, mdb.derivedFrom());
-                        writeErrorTriples(taskWithJobId, fileContainer, mdb.model(),
-                                validTriples.getValue(), mdb.derivedFrom());
-                    }
-                }));
-                sleep(sleepMs);
+        var profile = validationProfileRegistry.forTask(task);
+        log.info("validating task {} with profile {}", task.getId(), profile.hash());
+
+        if (taskShardService.isEnabled()) {
+            return runShardedFilterPipeline(taskWithJobId, profile, inputContainer);
+        }
+        try (var checkpoint = taskService.openCheckpoint(taskWithJobId)) {
+            // a retry appends to the containers of the previous run
+            var fileContainer = checkpoint.container("file", DataContainer.builder().build());
+            var graphContainer = checkpoint.container("graph", DataContainer.builder().build());
+            var resultContainer = checkpoint.container("result", DataContainer.builder().build())
+                    .toBuilder().graphUri(graphContainer.getUri()).build();
+
+            filterFiles(taskWithJobId, profile, inputContainer, fileContainer, graphContainer, checkpoint, null);
+
+            taskService.appendTaskResultGraph(task, resultContainer);
+            checkpoint.delete();
+        }
+        return true;
+    }
+
+    /**
+     * filters the shards of the task that no other replica leased, appending to the containers shared by the
+     * shards. each shard has its own checkpoint, in case it is leased again after a failure.
+     */
+    private boolean runShardedFilterPipeline(TaskWithJobId taskWithJobId, ValidationProfile profile,
+            DataContainer inputContainer) throws Exception {
+        var task = taskWithJobId.task();
+        var containers = taskShardService.plan(taskWithJobId, Map.of(
+                "file", DataContainer.builder().build(),
+                "graph", DataContainer.builder().build(),
+                "result", DataContainer.builder().build()));
+        var graphContainer = containers.get("graph");
+        Optional<TaskShardService.ShardLease> lease;
+        while ((lease = taskShardService.claim(taskWithJobId)).isPresent()) {
+            try (var shard = lease.get(); var checkpoint = taskService.openCheckpoint(taskWithJobId, shard.index())) {
+                filterFiles(taskWithJobId, profile, inputContainer, containers.get("file"), graphContainer,
+                        checkpoint, shard);
+                // the lease was lost or not confirmed, the shard and its checkpoint are left to the next lease
+                if (!shard.done()) {
+                    continue;
+                }
+                checkpoint.delete();
+            }
+        }
+        if (!taskShardService.complete(taskWithJobId)) {
+            log.info("shards of task {} are left to other replicas", task.getId());
+            return false;
+        }
+        taskService.appendTaskResultGraph(task,
+                containers.get("result").toBuilder().graphUri(graphContainer.getUri()).build());
+        return true;
+    }
+
+    /**
+     * filters the files of the task, or of the shard if not null. the files of a shard whose lease is lost are
+     * cancelled and their results not registered, the replica that leased the shard filters them again.
+     */
+    private void filterFiles(TaskWithJobId taskWithJobId, ValidationProfile profile, DataContainer inputContainer,
+            DataContainer fileContainer, DataContainer graphContainer, TaskCheckpoint checkpoint,
+            TaskShardService.ShardLease shard) throws Exception {
+        try (var batch = taskService.openUpdateBatch(); var xlsReport = xlsReportService.open();
+                var scope = new FileTaskScope(fileValidationExecutor, FailurePolicy.of(failurePolicy), maxFileErrors)) {
+            var summary = validationSummaryService.open(profile, shard);
+            var interner = internNodes ? new NodeInterner() : null;
+            if (shard != null) {
+                shard.onLost(scope::shutdown);
+            }
+            var context = new FilteringContext(taskWithJobId, profile, inputContainer, fileContainer, graphContainer,
+                    batch, xlsReport, summary, interner, shard == null ? null : shard.index());
+            var skipped = 0;
+            var files = taskService.streamFilesFromInputContainer(inputContainer.getGraphUri()).iterator();
+            while (files.hasNext() && !scope.isShutdown()) {
+                var pathByDerived = files.next();
+                if (shard != null && !shard.contains(pathByDerived.derivedFrom())) {
+                    continue;
+                }
+                if (checkpoint.isDone(pathByDerived)) {
+                    skipped++;
+                    continue;
+                }
+                scope.fork(pathByDerived.path(),
+                        () -> taskService.resolveFile(pathByDerived)
+                                .map(file -> prefetch(context, pathByDerived, file))
+                                .orElse(null),
+                        prefetched -> {
+                            if (prefetched != null) {
+                                validateFile(context, prefetched);
+                                batch.afterFlush(() -> markDone(checkpoint, shard, pathByDerived));
+                            }
+                        });
+            }
+            if (skipped > 0) {
+                log.info("skipped {} file(s) done by a previous run", skipped);
+                if (summary != null) {
+                    summary.skipped(skipped);
+                }
+            }
+            scope.join();
+            if (interner != null) {
+                metrics.interned(interner.getHits(), interner.getMisses());
+                log.info("interned nodes: {} hit(s), {} miss(es)", interner.getHits(), interner.getMisses());
             }
-            for (var thread : threads) {
-                thread.join();
+            if (shard != null && shard.isLost()) {
+                log.warn("dropping the results of shard {} of task {}", shard.index(), taskWithJobId.task().getId());
+                batch.discard();
+                return;
+            }
+            reportFailures(taskWithJobId, scope, batch);
+            if (xlsReport != null) {
+                metrics.stage("report", () -> xlsReportService.writeReport(context, xlsReport));
+            }
+            if (summary != null) {
+                metrics.stage("report", () -> validationSummaryService.writeSummary(context, summary));
             }
         }
+    }
 
-        taskService.appendTaskResultGraph(task, resultContainer);
+    /**
+     * records a file in the checkpoint once its results are sent. the checkpoint of a shard is shared with the
+     * replica that leases it next, so it is only written while this replica holds the lease.
+     */
+    private void markDone(TaskCheckpoint checkpoint, TaskShardService.ShardLease shard, PathByDerived pathByDerived) {
+        if (shard == null) {
+            checkpoint.markDone(pathByDerived);
+        } else {
+            shard.whileHeld(() -> checkpoint.markDone(pathByDerived));
+        }
     }
 
-    private void writeErrorTriples(TaskWithJobId taskWithJobId, DataContainer fileContainer,
-            Model importedTriples, Model validTriples,
-            String derivedFrom) {
-        var errorTriples = importedTriples.difference(validTriples);
-        log.debug("Number of errored triples: {}", errorTriples.size());
-        var dataContainer = fileContainer.toBuilder()
-                .graphUri(taskService.writeTtlFile(
-                        taskWithJobId.task().getGraph(), new ModelByDerived(derivedFrom, errorTriples),
-                        "error-triples.ttl", taskWithJobId.jobId()))
+    /**
+     * appends the first failed files to the errors of the task, and fails the task if the failure policy gave up.
+     * the results of a task that gave up are not registered: the updates not sent yet are dropped, and the files
+     * they are about are not marked done in the checkpoint.
+     */
+    private void reportFailures(TaskWithJobId taskWithJobId, FileTaskScope scope, SparqlUpdateBatch batch) {
+        if (scope.getFailureCount() == 0) {
+            return;
+        }
+        var task = taskWithJobId.task();
+        scope.getFailures()
+                .forEach(failure -> taskService.appendTaskError(task, StringUtils.abbreviate(failure, 1000)));
+        var unreported = scope.getFailureCount() - scope.getFailures().size();
+        if (unreported > 0) {
+            taskService.appendTaskError(task, "%d more file(s) failed".formatted(unreported));
+        }
+        if (scope.isShutdown()) {
+            batch.discard();
+            throw new IllegalStateException("gave up after %d failed file(s)".formatted(scope.getFailureCount()));
+        }
+        log.warn("{} file(s) of task {} failed", scope.getFailureCount(), task.getId());
+    }
 
-                .build();
-        taskService.appendTaskResultFile(taskWithJobId, dataContainer);
+    private boolean isChunked(File file) {
+        return streamingEnabled && file.length() >= streamingThresholdBytes;
     }
 
-    private void writeReport(TaskWithJobId taskWithJobId, DataContainer fileContainer, Model report,
-            String derivedFrom) {
-        var dataContainer = fileContainer.toBuilder()
-                .graphUri(taskService.writeTtlFile(
-                        taskWithJobId.task().getGraph(), new ModelByDerived(derivedFrom, report),
-                        "validation-report.ttl", taskWithJobId.jobId()))
+    /**
+     * reads and parses a file ahead of its validation, or indexes it when it is validated in chunks, unless it is
+     * cached. waits until the estimated heap cost of its validation fits in the heap budget.
+     * the type index and chunks of a chunked validation are accounted as a file of the streaming threshold,
+     * a file that turns out not to be chunkable is parsed as a whole with the budget of its size.
+     */
+    @SneakyThrows
+    private PrefetchedFile prefetch(FilteringContext context, PathByDerived pathByDerived, File file) {
+        var cacheKey = validationCache.keyOf(file, context.profile().hash());
+        if (cacheKey.filter(validationCache::contains).isPresent()) {
+            return new PrefetchedFile(pathByDerived, file, cacheKey, null, null, () -> {
+            });
+        }
+        if (isChunked(file)) {
+            var cost = heapBudget.estimate(streamingThresholdBytes);
+            heapBudget.acquire(cost);
+            Optional<ChunkedValidationService.TypeIndex> types;
+            try {
+                types = metrics.stage("index", () -> chunkedValidationService.index(file));
+            } catch (RuntimeException e) {
+                heapBudget.release(cost);
+                throw e;
+            }
+            if (types.isPresent()) {
+                return new PrefetchedFile(pathByDerived, file, cacheKey, null, types.get(),
+                        () -> heapBudget.release(cost));
+            }
+            heapBudget.release(cost);
+        }
+        var cost = heapBudget.estimate(file.length());
+        heapBudget.acquire(cost);
+        try {
+            var model = taskService.loadModel(pathByDerived, file, context.interner());
+            return new PrefetchedFile(pathByDerived, file, cacheKey, model, null, () -> heapBudget.release(cost));
+        } catch (RuntimeException e) {
+            heapBudget.release(cost);
+            throw e;
+        }
+    }
 
-                .build();
-        taskService.appendTaskResultFile(taskWithJobId, dataContainer);
+    private void validateFile(FilteringContext context, PrefetchedFile prefetched) {
+        FileTaskScope.checkCancelled();
+        var jobId = context.task().jobId();
+        var cacheKey = prefetched.cacheKey();
+        var cached = cacheKey.flatMap(key -> metrics.stage("cache",
+                () -> validationCache.restore(key, jobId, prefetched.pathByDerived().derivedFrom())));
+        if (cached.isPresent()) {
+            log.info("reusing cached validation of {}", prefetched.file());
+            aggregate(context, cached.get());
+            FileTaskScope.checkCancelled();
+            metrics.stage("register", () -> registerResult(context, cached.get()));
+            metrics.file(cached.get().conforms(), true);
+            return;
+        }
+        var result = validate(context, prefetched);
+        if (context.summary() != null) {
+            context.summary().file(result.conforms());
+        }
+        cacheKey.ifPresent(key -> metrics.stage("cache", () -> validationCache.store(key, result)));
+        FileTaskScope.checkCancelled();
+        metrics.stage("register", () -> registerResult(context, result));
+        metrics.file(result.conforms(), false);
+    }
+
+    /**
+     * adds the report of a file to the xlsx report and the summary of the task.
+     */
+    private void aggregate(FilteringContext context, String derivedFrom, ValidationReport report) {
+        if (report.conforms()) {
+            return;
+        }
+        metrics.stage("report", () -> {
+            if (context.xlsReport() != null) {
+                context.xlsReport().add(derivedFrom, report);
+            }
+            if (context.summary() != null) {
+                context.summary().add(derivedFrom, report);
+            }
+        });
+    }
+
+    /**
+     * adds a cached result, whose report is only available as a file.
+     */
+    private void aggregate(FilteringContext context, FileValidationResult result) {
+        if (context.summary() != null) {
+            context.summary().file(result.conforms());
+        }
+        if (!result.conforms() && (context.xlsReport() != null || context.summary() != null)) {
+            var report = ValidationReport.fromModel(RDFDataMgr.loadModel(result.report().getPath()));
+            aggregate(context, result.derivedFrom(), report);
+        }
+    }
+
+    private FileValidationResult validate(FilteringContext context, PrefetchedFile prefetched) {
+        var jobId = context.task().jobId();
+        var file = prefetched.file();
+        var derivedFrom = prefetched.pathByDerived().derivedFrom();
+        var upstreamReport = upstreamReport(context, prefetched);
+        if (upstreamReport.isPresent()) {
+            log.info("reusing upstream validation report of {}", derivedFrom);
+            Consumer<Consumer<Triple>> triples = prefetched.model() != null
+                    ? sink -> prefetched.model().model().getGraph().find().forEachRemaining(sink)
+                    : sink -> RDFParser.source(file.toPath()).lang(Lang.TURTLE).parse(new StreamRDFBase() {
+                        @Override
+                        public void triple(Triple triple) {
+                            sink.accept(triple);
+                        }
+                    });
+            aggregate(context, derivedFrom, upstreamReport.get());
+            return writeResult(context, derivedFrom, triples, upstreamReport.get(), keepsReport(prefetched));
+        }
+        // not indexed ahead when a cached validation was expected but could not be restored
+        var types = prefetched.types() == null && prefetched.model() == null && isChunked(file)
+                ? metrics.stage("index", () -> chunkedValidationService.index(file))
+                : Optional.ofNullable(prefetched.types());
+        if (types.isPresent()) {
+            log.info("generate validation reports in chunks for {} ({} bytes)...", file, file.length());
+            return chunkedValidationService.validate(context.profile(), jobId, derivedFrom, file, types.get(),
+                    keepsReport(prefetched), report -> aggregate(context, derivedFrom, report));
+        }
+        // not parsed ahead when a cached validation was expected but could not be restored
+        var mdb = prefetched.model() != null
+                ? prefetched.model()
+                : taskService.loadModel(prefetched.pathByDerived(), file, context.interner());
+        log.info("generate validation reports...");
+        var report = incrementalValidationService.validate(context, mdb)
+                .orElseGet(() -> shapeValidationService.validate(context.profile(), mdb.model().getGraph()));
+        log.info("triples conforms: {}", report.conforms());
+        aggregate(context, derivedFrom, report);
+        return writeResult(context, derivedFrom, sink -> mdb.model().getGraph().find().forEachRemaining(sink),
+                report, keepsReport(prefetched));
+    }
+
+    /**
+     * the report file of a non conforming file is only written when it is registered or cached.
+     */
+    private boolean keepsReport(PrefetchedFile prefetched) {
+        return keepFileReports || prefetched.cacheKey().isPresent();
+    }
+
+    /**
+     * the report of the upstream validating task for this file, if the upstream report policy reuses it.
+     * entries about blank nodes can not be matched against the input, so a non conforming report is only
+     * reused for a parsed file without blank nodes.
+     */
+    private Optional<ValidationReport> upstreamReport(FilteringContext context, PrefetchedFile prefetched) {
+        var validationContainer = context.inputContainer().getValidationGraphUri();
+        var policy = UpstreamReportPolicy.of(reuseUpstreamReports);
+        if (policy == UpstreamReportPolicy.NONE || validationContainer == null) {
+            return Optional.empty();
+        }
+        var derivedFrom = prefetched.pathByDerived().derivedFrom();
+        try {
+            return taskService.fetchValidationGraphByDerivedFrom(validationContainer, derivedFrom)
+                    .filter(model -> {
+                        var reusable = isReusable(context.profile(), model, policy);
+                        if (!reusable) {
+                            log.info("upstream report of {} was not computed with the current shapes", derivedFrom);
+                        }
+                        return reusable;
+                    })
+                    .map(ValidationReport::fromModel)
+                    .filter(report -> report.conforms()
+                            || (prefetched.model() != null && !hasBlankNodes(prefetched.model().model())));
+        } catch (RuntimeException e) {
+            log.warn("could not load the upstream report of {}, validating again", derivedFrom, e);
+            return Optional.empty();
+        }
     }
 
-    private Map.Entry<DataContainer, Model> writeValidTriples(TaskWithJobId taskWithJobId, DataContainer fileContainer,
-            ValidationReport report, ModelByDerived importedTriples) {
+    /**
+     * a report with an ext:shapesHash is reused if it is the hash of the profile. a report without one is only
+     * reused when trusted, and if the iri shapes of its results are shapes of the profile.
+     */
+    private boolean isReusable(ValidationProfile profile, Model report, UpstreamReportPolicy policy) {
+        var shapesHash = report.createProperty(SHAPES_HASH);
+        if (report.contains(null, shapesHash)) {
+            return report.contains(null, shapesHash, profile.hash());
+        }
+        if (policy != UpstreamReportPolicy.TRUSTED) {
+            return false;
+        }
+        var shapes = profile.shapes().getGraph();
+        return report.getGraph().find(Node.ANY, SHACL.sourceShape, Node.ANY)
+                .mapWith(Triple::getObject)
+                .filterKeep(Node::isURI)
+                .filterDrop(shape -> shapes.contains(shape, Node.ANY, Node.ANY))
+                .toList()
+                .isEmpty();
+    }
+
+    private boolean hasBlankNodes(Model model) {
+        return model.getGraph().find()
+                .filterKeep(triple -> triple.getSubject().isBlank() || triple.getObject().isBlank())
+                .hasNext();
+    }
+
+    @SneakyThrows
+    private FileValidationResult writeResult(FilteringContext context, String derivedFrom,
+            Consumer<Consumer<Triple>> triples, ValidationReport report, boolean keepReport) {
+        FileTaskScope.checkCancelled();
+        var jobId = context.task().jobId();
         log.debug("filter non conform triples...");
-        var validTriples = shaclService.filter(importedTriples.model(), report);
-        var dataContainer = fileContainer.toBuilder()
-                .graphUri(taskService.writeTtlFile(
-                        taskWithJobId.task().getGraph(),
-                        new ModelByDerived(importedTriples.derivedFrom(), validTriples),
-                        "valid-triples.ttl", taskWithJobId.jobId()))
+        if (report.conforms()) {
+            try (var valid = taskService.openResultFile(jobId)) {
+                metrics.stage("serialise", () -> triples.accept(valid::triple));
+                metrics.triples(valid.getCount(), 0);
+                return new FileValidationResult(derivedFrom, true, valid.getFile(), null, null);
+            }
+        }
+        try (var valid = taskService.openResultFile(jobId);
+                var error = taskService.openResultFile(jobId)) {
+            var partitioner = new TriplePartitioner(report, strictModeFiltering);
+            metrics.stage("partition", () -> triples.accept(triple -> partitioner.partition(triple, valid, error)));
+            log.debug("Number of errored triples: {}", error.getCount());
+            metrics.triples(valid.getCount(), error.getCount());
+            return new FileValidationResult(derivedFrom, false, valid.getFile(), error.getFile(),
+                    keepReport ? writeReport(context, report) : null);
+        }
+    }
+
+    /**
+     * writes the report with the hash of the shapes it was computed with, so that a later task can reuse it.
+     */
+    @SneakyThrows
+    private File writeReport(FilteringContext context, ValidationReport report) {
+        var model = ModelUtils.replaceAnonNodes(report.getModel());
+        model.listSubjectsWithProperty(RDF.type, model.createResource(SHACL.ValidationReport.getURI()))
+                .toList()
+                .forEach(reportNode -> reportNode.addProperty(model.createProperty(SHAPES_HASH),
+                        context.profile().hash()));
+        try (var writer = taskService.openResultFile(context.task().jobId())) {
+            metrics.stage("serialise", () -> model.getGraph().find().forEachRemaining(writer::triple));
+            return writer.getFile();
+        }
+    }
+
+    private void registerResult(FilteringContext context, FileValidationResult result) {
+        var filteredGraph = registerFile(context, result.validTriples(), result.derivedFrom(),
+                VALID_TRIPLES_FILE_NAME);
+        taskService.appendTaskResultFile(
+                context.task(),
+                context.graphContainer().toBuilder().graphUri(filteredGraph).build(),
+                context.batch());
+        if (!result.conforms()) {
+            if (keepFileReports) {
+                registerFile(context, result.report(), result.derivedFrom(), VALIDATION_REPORT_FILE_NAME);
+            } else if (result.report() != null && !result.report().delete()) {
+                log.warn("could not delete report {}", result.report());
+            }
+            registerFile(context, result.errorTriples(), result.derivedFrom(), ERROR_TRIPLES_FILE_NAME);
+        }
+    }
+
+    private String registerFile(FilteringContext context, File file, String derivedFrom, String logicalFileName) {
+        var logicalFile = taskService.registerResultFile(context.task().task().getGraph(), file, derivedFrom,
+                logicalFileName, context.profile().hash(), context.batch());
+        var dataContainer = context.fileContainer().toBuilder()
+                .graphUri(logicalFile)
                 .build();
-        taskService.appendTaskResultFile(taskWithJobId, dataContainer);
-        return Map.entry(dataContainer, validTriples);
+        taskService.appendTaskResultFile(context.task(), dataContainer, context.batch());
+        return logicalFile;
     }
 }
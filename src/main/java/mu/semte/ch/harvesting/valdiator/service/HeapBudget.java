@@ -0,0 +1,87 @@
+package mu.semte.ch.harvesting.valdiator.service;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * admits files in memory as long as the estimated heap cost of the admitted files fits in the budget.
+ * the cost of a file is estimated as modelCostFactor times its size on disk.
+ * files are admitted in arrival order, so a big file is not starved by smaller ones,
+ * and a file bigger than the whole budget is admitted alone.
+ */
+@Component
+@Slf4j
+public class HeapBudget {
+    private static final double DEFAULT_HEAP_RATIO = 0.6;
+
+    private final long budget;
+    private final double modelCostFactor;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private final Deque<Object> waiters = new ArrayDeque<>();
+    private long used;
+
+    public HeapBudget(@Value("${application.validation.heapBudgetMb}") long heapBudgetMb,
+            @Value("${application.validation.modelCostFactor}") double modelCostFactor) {
+        this.budget = heapBudgetMb > 0
+                ? heapBudgetMb * 1024 * 1024
+                : (long) (Runtime.getRuntime().maxMemory() * DEFAULT_HEAP_RATIO);
+        this.modelCostFactor = modelCostFactor;
+        log.info("heap budget for files in memory: {} MB", budget / 1024 / 1024);
+    }
+
+    public long estimate(long fileSize) {
+        return (long) (fileSize * modelCostFactor);
+    }
+
+    public void acquire(long cost) throws InterruptedException {
+        var waiter = new Object();
+        lock.lockInterruptibly();
+        try {
+            waiters.addLast(waiter);
+            try {
+                while (waiters.peekFirst() != waiter || (used > 0 && used + cost > budget)) {
+                    released.await();
+                }
+            } finally {
+                waiters.remove(waiter);
+                // the next waiter may fit now, or may be the head now that this one gave up
+                released.signalAll();
+            }
+            used += cost;
+            if (cost > budget) {
+                log.warn("estimated heap cost of {} MB is over the budget, admitted alone", cost / 1024 / 1024);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void release(long cost) {
+        lock.lock();
+        try {
+            used -= cost;
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getUsed() {
+        lock.lock();
+        try {
+            return used;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+}
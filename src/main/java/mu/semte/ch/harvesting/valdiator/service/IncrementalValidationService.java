@@ -0,0 +1,187 @@
+package mu.semte.ch.harvesting.valdiator.service;
+
+import static java.util.Optional.ofNullable;
+import static mu.semte.ch.harvesting.valdiator.Constants.ERROR_TRIPLES_FILE_NAME;
+import static mu.semte.ch.harvesting.valdiator.Constants.VALIDATION_REPORT_FILE_NAME;
+import static mu.semte.ch.harvesting.valdiator.Constants.VALID_TRIPLES_FILE_NAME;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.shacl.ValidationReport;
+import org.apache.jena.shacl.vocabulary.SHACL;
+import org.apache.jena.sparql.graph.GraphFactory;
+import org.apache.jena.vocabulary.RDFS;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * validates a re-harvested file against the result of the last filtering of the same derivedFrom.
+ * the previous input is the union of its valid and error triples. only the focus nodes that can reach a changed
+ * triple are validated again, the entries of the previous report about the other focus nodes are kept.
+ * falls back to a full validation (empty result) when the previous result was computed with other shapes,
+ * when the shapes use sparql constraints or inverse paths, when blank nodes or rdfs:subClassOf triples are involved,
+ * or when the closure of the changed nodes is over maxChangeRatio of the subjects.
+ */
+@Service
+@Slf4j
+public class IncrementalValidationService {
+    private static final Node SH_SPARQL = NodeFactory.createURI(SHACL.getURI() + "sparql");
+    private static final Node SH_INVERSE_PATH = NodeFactory.createURI(SHACL.getURI() + "inversePath");
+
+    private final TaskService taskService;
+    private final ValidationMetrics metrics;
+    @Value("${shacl.incremental.enabled}")
+    private boolean enabled;
+    @Value("${shacl.incremental.maxChangeRatio}")
+    private double maxChangeRatio;
+
+    public IncrementalValidationService(TaskService taskService, ValidationMetrics metrics) {
+        this.taskService = taskService;
+        this.metrics = metrics;
+    }
+
+    private boolean isSupported(ValidationProfile profile) {
+        var shapesGraph = profile.shapes().getGraph();
+        return !shapesGraph.contains(Node.ANY, SH_SPARQL, Node.ANY)
+                && !shapesGraph.contains(Node.ANY, SH_INVERSE_PATH, Node.ANY);
+    }
+
+    public Optional<ValidationReport> validate(FilteringContext context, ModelByDerived mdb) {
+        var profile = context.profile();
+        if (!enabled || !isSupported(profile)) {
+            return Optional.empty();
+        }
+        var data = mdb.model().getGraph();
+        var derivedFrom = mdb.derivedFrom();
+        try {
+            if (hasBlankNodes(data)) {
+                return Optional.empty();
+            }
+            var previousFiles = taskService.fetchPreviousResultFiles(derivedFrom, context.fileContainer().getUri(),
+                    profile.hash());
+            if (!previousFiles.containsKey(VALID_TRIPLES_FILE_NAME)) {
+                log.debug("no previous result of {} with the current shapes", derivedFrom);
+                return Optional.empty();
+            }
+            if (previousFiles.containsKey(ERROR_TRIPLES_FILE_NAME)
+                    && !previousFiles.containsKey(VALIDATION_REPORT_FILE_NAME)) {
+                return Optional.empty();
+            }
+            return metrics.stage("validate", () -> validate(profile, derivedFrom, data, previousFiles));
+        } catch (RuntimeException e) {
+            log.warn("could not validate {} incrementally, validating it fully", derivedFrom, e);
+            return Optional.empty();
+        }
+    }
+
+    private Optional<ValidationReport> validate(ValidationProfile profile, String derivedFrom, Graph data,
+            Map<String, File> previousFiles) {
+        var previous = GraphFactory.createDefaultGraph();
+        RDFDataMgr.read(previous, previousFiles.get(VALID_TRIPLES_FILE_NAME).getPath());
+        var previousReport = ofNullable(previousFiles.get(ERROR_TRIPLES_FILE_NAME))
+                .map(errors -> {
+                    RDFDataMgr.read(previous, errors.getPath());
+                    var model = ModelFactory.createDefaultModel();
+                    RDFDataMgr.read(model, previousFiles.get(VALIDATION_REPORT_FILE_NAME).getPath());
+                    return ValidationReport.fromModel(model);
+                })
+                .orElseGet(ValidationReport::reportConformsTrue);
+        if (hasBlankNodes(previous)) {
+            return Optional.empty();
+        }
+
+        var changed = new HashSet<Triple>();
+        if (!diff(data, previous, changed) || !diff(previous, data, changed)) {
+            return Optional.empty();
+        }
+        if (changed.isEmpty()) {
+            log.info("{} did not change since its previous filtering", derivedFrom);
+            return Optional.of(previousReport);
+        }
+        var subjects = data.find().mapWith(Triple::getSubject).toSet().size();
+        var closure = closure(changed, data, previous, (long) (maxChangeRatio * subjects));
+        if (closure.isEmpty()) {
+            log.info("too many changes in {}, validating it fully", derivedFrom);
+            return Optional.empty();
+        }
+        log.info("validating {} of {} subjects of {} again", closure.get().size(), subjects, derivedFrom);
+
+        var focusNodes = closure.get();
+        var partial = profile.shapeIndex().validate(data, focusNodes::contains);
+        var report = ValidationReport.create();
+        previousReport.getEntries().stream()
+                .filter(entry -> !focusNodes.contains(entry.focusNode()))
+                .forEach(report::addReportEntry);
+        partial.getEntries().forEach(report::addReportEntry);
+        return Optional.of(report.build());
+    }
+
+    /**
+     * adds the triples of a not in b to changed.
+     * false when such a triple is about rdfs:subClassOf, which can change the targets of any node.
+     */
+    private boolean diff(Graph a, Graph b, Set<Triple> changed) {
+        var it = a.find();
+        try {
+            while (it.hasNext()) {
+                var triple = it.next();
+                if (!b.contains(triple)) {
+                    if (RDFS.Nodes.subClassOf.equals(triple.getPredicate())) {
+                        return false;
+                    }
+                    changed.add(triple);
+                }
+            }
+            return true;
+        } finally {
+            it.close();
+        }
+    }
+
+    /**
+     * the focus nodes whose result can differ: the nodes that can reach the subject of a changed triple in the new
+     * or previous data, and the objects of the changed triples, which can be targeted by sh:targetObjectsOf.
+     * empty when the closure gets bigger than max.
+     */
+    private Optional<Set<Node>> closure(Set<Triple> changed, Graph data, Graph previous, long max) {
+        var closure = new HashSet<Node>();
+        var reaching = new HashSet<Node>();
+        var queue = new ArrayDeque<Node>();
+        for (var triple : changed) {
+            closure.add(triple.getObject());
+            if (reaching.add(triple.getSubject())) {
+                queue.add(triple.getSubject());
+            }
+        }
+        while (!queue.isEmpty() && closure.size() + reaching.size() <= max) {
+            var node = queue.poll();
+            for (var graph : List.of(data, previous)) {
+                graph.find(Node.ANY, Node.ANY, node).forEachRemaining(triple -> {
+                    if (reaching.add(triple.getSubject())) {
+                        queue.add(triple.getSubject());
+                    }
+                });
+            }
+        }
+        closure.addAll(reaching);
+        return closure.size() > max ? Optional.empty() : Optional.of(closure);
+    }
+
+    private boolean hasBlankNodes(Graph graph) {
+        return graph.find()
+                .filterKeep(triple -> triple.getSubject().isBlank() || triple.getObject().isBlank())
+                .hasNext();
+    }
+}
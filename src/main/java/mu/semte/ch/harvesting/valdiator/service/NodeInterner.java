@@ -0,0 +1,62 @@
+package mu.semte.ch.harvesting.valdiator.service;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.jena.datatypes.RDFDatatype;
+import org.apache.jena.graph.Node;
+import org.apache.jena.riot.system.FactoryRDF;
+import org.apache.jena.riot.system.FactoryRDFStd;
+
+/**
+ * iris and literals of the files of a task, so that the predicates, classes and resources repeated by the pages of a
+ * harvest are one node across all the files validated at the same time.
+ * nodes are weakly held, a node no file in memory refers to can be collected. blank nodes are not interned, their
+ * labels are scoped to a file.
+ */
+public class NodeInterner {
+    private final Interner<Node> interner = Interners.newWeakInterner();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public Node intern(Node node) {
+        var interned = interner.intern(node);
+        (interned == node ? misses : hits).increment();
+        return interned;
+    }
+
+    /**
+     * a factory for the parser of one file.
+     */
+    public FactoryRDF factory() {
+        return new FactoryRDFStd() {
+            @Override
+            public Node createURI(String uriStr) {
+                return intern(super.createURI(uriStr));
+            }
+
+            @Override
+            public Node createTypedLiteral(String lexical, RDFDatatype datatype) {
+                return intern(super.createTypedLiteral(lexical, datatype));
+            }
+
+            @Override
+            public Node createLangLiteral(String lexical, String langTag) {
+                return intern(super.createLangLiteral(lexical, langTag));
+            }
+
+            @Override
+            public Node createStringLiteral(String lexical) {
+                return intern(super.createStringLiteral(lexical));
+            }
+        };
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+}
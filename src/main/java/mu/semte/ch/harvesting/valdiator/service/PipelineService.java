@@ -7,56 +7,192 @@ import static mu.semte.ch.harvesting.valdiator.Constants.STATUS_FAILED;
 import static mu.semte.ch.harvesting.valdiator.Constants.STATUS_SUCCESS;
 import static mu.semte.ch.harvesting.valdiator.Constants.TASK_HARVESTING_FILTERING;
 
+import java.time.Duration;
+import java.util.Comparator;
 import java.util.Optional;
-import java.util.function.Consumer;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
 import lombok.extern.slf4j.Slf4j;
 import mu.semte.ch.harvesting.valdiator.service.TaskService.TaskWithJobId;
 import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+/**
+ * runs at most maxConcurrentTasks pipelines at a time.
+ * a task already queued or running is not scheduled twice, and queued tasks are started
+ * from the smallest input container (in number of files) to the largest, in arrival order for equal sizes.
+ * a task that waited longer than maxWaitSeconds is started before the smaller ones, so that a large task is not
+ * starved by a steady stream of small ones.
+ * when tasks are sharded, busy tasks with shards left to filter are polled for and scheduled as well,
+ * so that every replica helps with them.
+ */
 @Service
 @Slf4j
 public class PipelineService {
     private final TaskService taskService;
     private final FilteringService filteringService;
+    private final TaskShardService taskShardService;
+    private final Semaphore runningTasks;
+    private final Set<String> scheduledTasks = ConcurrentHashMap.newKeySet();
+    private final PriorityBlockingQueue<QueuedTask> queue = new PriorityBlockingQueue<>(11,
+            Comparator.comparingLong(QueuedTask::fileCount).thenComparingLong(QueuedTask::sequence));
+    private final AtomicLong sequence = new AtomicLong();
+    private final Duration maxWait;
 
     public PipelineService(TaskService taskService,
-            FilteringService filteringService) {
+            FilteringService filteringService,
+            TaskShardService taskShardService,
+            @Value("${application.pipeline.maxConcurrentTasks}") int maxConcurrentTasks,
+            @Value("${application.pipeline.maxWaitSeconds}") long maxWaitSeconds,
+            @Value("${application.sharding.pollSeconds}") long shardPollSeconds) {
         this.taskService = taskService;
         this.filteringService = filteringService;
+        this.taskShardService = taskShardService;
+        this.runningTasks = new Semaphore(Math.max(1, maxConcurrentTasks));
+        this.maxWait = Duration.ofSeconds(maxWaitSeconds);
+        if (taskShardService.isEnabled()) {
+            var period = Math.max(1, shardPollSeconds);
+            Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().daemon().name("shard-poll").factory())
+                    .scheduleWithFixedDelay(this::pollShardedTasks, period, period, TimeUnit.SECONDS);
+        }
     }
 
-    public void runPipeline(String deltaEntry) {
+    /**
+     * the task is done when the pipeline returns true, it is left busy otherwise (another replica completes it).
+     */
+    private record QueuedTask(String deltaEntry, TaskWithJobId taskWithJobId, Predicate<TaskWithJobId> pipeline,
+            long fileCount, long sequence, long queuedAt) {
+    }
+
+    private void pollShardedTasks() {
+        try {
+            taskService.selectShardedTasks().forEach(this::runPipeline);
+        } catch (Exception e) {
+            log.warn("could not poll for sharded tasks", e);
+        }
+    }
 
+    public void runPipeline(String deltaEntry) {
+        if (!scheduledTasks.add(deltaEntry)) {
+            log.info("task {} is already queued or running, skipping", deltaEntry);
+            return;
+        }
         Thread.startVirtualThread(() -> {
-            if (!taskService.isTask(deltaEntry))
-                return;
-            var taskWithJobId = taskService.loadTask(deltaEntry);
-            var task = taskWithJobId.task();
-            if (task == null || StringUtils.isEmpty(task.getOperation())) {
-                log.debug("task or operation is empty for delta entry {}", deltaEntry);
-                return;
+            try {
+                if (!enqueue(deltaEntry)) {
+                    scheduledTasks.remove(deltaEntry);
+                }
+            } catch (Throwable e) {
+                log.error("could not schedule {}", deltaEntry, e);
+                scheduledTasks.remove(deltaEntry);
             }
+        });
+    }
+
+    private boolean enqueue(String deltaEntry) {
+        if (!taskService.isTask(deltaEntry))
+            return false;
+        var taskWithJobId = taskService.loadTask(deltaEntry);
+        var task = taskWithJobId.task();
+        if (task == null || StringUtils.isEmpty(task.getOperation())) {
+            log.debug("task or operation is empty for delta entry {}", deltaEntry);
+            return false;
+        }
+
+        Optional<Predicate<TaskWithJobId>> taskPipeline = switch (task.getOperation()) {
+            case TASK_HARVESTING_FILTERING -> of(filteringService::runFilterPipeline);
+            default -> empty();
+        };
+        if (taskPipeline.isEmpty()) {
+            log.debug("unknown operation '{}' for delta entry {}", task.getOperation(), deltaEntry);
+            return false;
+        }
+
+        var fileCount = countFiles(taskWithJobId);
+        log.info("queueing task {} with {} files, {} task(s) already queued", task.getId(), fileCount, queue.size());
+        queue.add(new QueuedTask(deltaEntry, taskWithJobId, taskPipeline.get(), fileCount,
+                sequence.getAndIncrement(), System.nanoTime()));
+        dispatch();
+        return true;
+    }
 
-            Optional<Consumer<TaskWithJobId>> taskConsumer = switch (task.getOperation()) {
-                case TASK_HARVESTING_FILTERING -> of(filteringService::runFilterPipeline);
-                default -> empty();
-            };
+    private long countFiles(TaskWithJobId taskWithJobId) {
+        try {
+            var inputContainer = taskService.selectInputContainer(taskWithJobId.task()).get(0);
+            return taskService.countFilesFromInputContainer(inputContainer.getGraphUri());
+        } catch (Exception e) {
+            // the pipeline reports the error on the task, it is queued last in the meantime
+            log.warn("could not count the files of task {}", taskWithJobId.task().getId(), e);
+            return Long.MAX_VALUE;
+        }
+    }
 
-            taskConsumer.ifPresentOrElse(consumer -> {
+    private void dispatch() {
+        while (runningTasks.tryAcquire()) {
+            var next = pollNext();
+            if (next == null) {
+                runningTasks.release();
+                // a task queued between poll and release could not get the permit
+                if (queue.isEmpty()) {
+                    return;
+                }
+                continue;
+            }
+            Thread.startVirtualThread(() -> {
                 try {
-                    taskService.updateTaskStatus(task, STATUS_BUSY);
-                    consumer.accept(taskWithJobId);
-                    taskService.updateTaskStatus(task, STATUS_SUCCESS);
-                    log.debug("Done with success for task {}", task.getId());
-                } catch (Throwable e) {
-                    log.error("Error:", e);
-                    taskService.updateTaskStatus(task, STATUS_FAILED);
-                    taskService.appendTaskError(task, StringUtils.abbreviate(e.getMessage(), 100));
+                    run(next);
+                } finally {
+                    scheduledTasks.remove(next.deltaEntry());
+                    runningTasks.release();
+                    dispatch();
                 }
-            }, () -> log.debug("unknown operation '{}' for delta entry {}", task.getOperation(), deltaEntry));
+            });
+        }
+    }
 
-        });
+    /**
+     * the task that waited the longest if it waited longer than maxWait, the smallest task otherwise.
+     * the waiting time is not part of the order of the queue, which must not change while tasks are queued.
+     */
+    private QueuedTask pollNext() {
+        if (maxWait.isPositive()) {
+            var now = System.nanoTime();
+            var overdue = queue.stream()
+                    .filter(queued -> now - queued.queuedAt() > maxWait.toNanos())
+                    .min(Comparator.comparingLong(QueuedTask::sequence));
+            // another dispatch may have taken it in the meantime
+            if (overdue.isPresent() && queue.remove(overdue.get())) {
+                log.info("starting task {} with {} files ahead of smaller ones, it waited longer than {}",
+                        overdue.get().taskWithJobId().task().getId(), overdue.get().fileCount(), maxWait);
+                return overdue.get();
+            }
+        }
+        return queue.poll();
+    }
+
+    private void run(QueuedTask queuedTask) {
+        var task = queuedTask.taskWithJobId().task();
+        try {
+            // a sharded task polled from another replica is busy already
+            if (!STATUS_BUSY.equals(task.getStatus())) {
+                taskService.updateTaskStatus(task, STATUS_BUSY);
+            }
+            if (queuedTask.pipeline().test(queuedTask.taskWithJobId())) {
+                taskService.updateTaskStatus(task, STATUS_SUCCESS);
+                log.debug("Done with success for task {}", task.getId());
+            }
+        } catch (Throwable e) {
+            log.error("Error:", e);
+            taskService.updateTaskStatus(task, STATUS_FAILED);
+            taskService.appendTaskError(task, StringUtils.abbreviate(e.getMessage(), 100));
+        }
     }
 
 }
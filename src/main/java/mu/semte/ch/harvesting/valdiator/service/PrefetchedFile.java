@@ -0,0 +1,20 @@
+package mu.semte.ch.harvesting.valdiator.service;
+
+import java.io.File;
+import java.util.Optional;
+import mu.semte.ch.harvesting.valdiator.service.TaskService.PathByDerived;
+
+/**
+ * an input file ready for validation. model is null when the file is not parsed ahead,
+ * i.e. when it is validated in chunks or its validation is cached. types is the first pass of a file validated in
+ * chunks, null otherwise.
+ * closing it gives its heap budget back.
+ */
+record PrefetchedFile(PathByDerived pathByDerived, File file, Optional<String> cacheKey, ModelByDerived model,
+        ChunkedValidationService.TypeIndex types, Runnable release) implements AutoCloseable {
+
+    @Override
+    public void close() {
+        release.run();
+    }
+}
@@ -0,0 +1,43 @@
+package mu.semte.ch.harvesting.valdiator.service;
+
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFLanguages;
+import org.apache.jena.riot.system.StreamRDFWriter;
+
+/**
+ * serialisation of the result files: a streamable rdf syntax (n-triples or rdf thrift), optionally gzipped.
+ * gzipped files get a .gz suffix, which jena strips to find the syntax when reading them back.
+ */
+public record ResultFileFormat(Lang lang, boolean gzip) {
+
+    public ResultFileFormat {
+        if (!StreamRDFWriter.registered(lang)) {
+            throw new IllegalArgumentException("%s can not be written as a stream".formatted(lang.getLabel()));
+        }
+    }
+
+    public static ResultFileFormat of(String fileExtension, String compression) {
+        var lang = RDFLanguages.fileExtToLang(fileExtension);
+        if (lang == null) {
+            throw new IllegalArgumentException("unknown result file format '%s'".formatted(fileExtension));
+        }
+        return switch (compression) {
+            case "none" -> new ResultFileFormat(lang, false);
+            case "gzip" -> new ResultFileFormat(lang, true);
+            default -> throw new IllegalArgumentException("unknown compression '%s'".formatted(compression));
+        };
+    }
+
+    public String extension() {
+        var extension = lang.getFileExtensions().get(0);
+        return gzip ? extension + ".gz" : extension;
+    }
+
+    /**
+     * the media type of the file as a whole, application/gzip when gzipped: the syntax is only known from the
+     * extension then, as for any gzipped file.
+     */
+    public String contentType() {
+        return gzip ? "application/gzip" : lang.getContentType().getContentTypeStr();
+    }
+}
@@ -0,0 +1,98 @@
+package mu.semte.ch.harvesting.valdiator.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.shacl.Shapes;
+import org.apache.jena.shacl.ValidationReport;
+import org.apache.jena.shacl.engine.ValidationContext;
+import org.apache.jena.shacl.parser.Shape;
+import org.apache.jena.shacl.validation.VLib;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.RDFS;
+
+/**
+ * index of the target shapes by target class, node, and subjects/objects-of predicate.
+ * validating a graph only evaluates the shapes whose targets can match the types and predicates it contains,
+ * which gives the same report as validating against every shape.
+ * class targets fall back to every class targeted shape when the data contains rdfs:subClassOf triples.
+ */
+public class ShapeIndex {
+    private final Shapes shapes;
+    private final Map<Node, List<Shape>> byClass = new HashMap<>();
+    private final Map<Node, List<Shape>> byNode = new HashMap<>();
+    private final Map<Node, List<Shape>> bySubjectsOf = new HashMap<>();
+    private final Map<Node, List<Shape>> byObjectsOf = new HashMap<>();
+    private final List<Shape> classTargeted = new ArrayList<>();
+
+    public ShapeIndex(Shapes shapes) {
+        this.shapes = shapes;
+        for (var shape : shapes.getTargetShapes()) {
+            for (var target : shape.getTargets()) {
+                var key = target.getObject();
+                switch (target.getTargetType()) {
+                    case targetClass, implicitClass -> {
+                        byClass.computeIfAbsent(key, k -> new ArrayList<>()).add(shape);
+                        classTargeted.add(shape);
+                    }
+                    case targetNode -> byNode.computeIfAbsent(key, k -> new ArrayList<>()).add(shape);
+                    case targetSubjectsOf -> bySubjectsOf.computeIfAbsent(key, k -> new ArrayList<>()).add(shape);
+                    case targetObjectsOf -> byObjectsOf.computeIfAbsent(key, k -> new ArrayList<>()).add(shape);
+                }
+            }
+        }
+    }
+
+    public Collection<Shape> shapesFor(Graph data) {
+        var types = new HashSet<Node>();
+        var predicates = new HashSet<Node>();
+        data.find().forEachRemaining(triple -> {
+            predicates.add(triple.getPredicate());
+            if (RDF.Nodes.type.equals(triple.getPredicate())) {
+                types.add(triple.getObject());
+            }
+        });
+        var selected = new LinkedHashSet<Shape>();
+        if (predicates.contains(RDFS.Nodes.subClassOf)) {
+            selected.addAll(classTargeted);
+        } else {
+            types.forEach(type -> selected.addAll(byClass.getOrDefault(type, List.of())));
+        }
+        predicates.forEach(predicate -> {
+            selected.addAll(bySubjectsOf.getOrDefault(predicate, List.of()));
+            selected.addAll(byObjectsOf.getOrDefault(predicate, List.of()));
+        });
+        byNode.forEach((node, nodeShapes) -> {
+            if (data.contains(node, Node.ANY, Node.ANY) || data.contains(Node.ANY, Node.ANY, node)) {
+                selected.addAll(nodeShapes);
+            }
+        });
+        return selected;
+    }
+
+    public ValidationReport validate(Graph data) {
+        return validate(data, focusNode -> true);
+    }
+
+    /**
+     * validates only the focus nodes accepted by the filter.
+     */
+    public ValidationReport validate(Graph data, Predicate<Node> focusNodeFilter) {
+        var context = ValidationContext.create(shapes, data);
+        for (var shape : shapesFor(data)) {
+            for (var focusNode : VLib.focusNodes(data, shape)) {
+                if (focusNodeFilter.test(focusNode)) {
+                    VLib.validateShape(context, data, shape, focusNode);
+                }
+            }
+        }
+        return context.generateReport();
+    }
+}
@@ -0,0 +1,40 @@
+package mu.semte.ch.harvesting.valdiator.service;
+
+import mu.semte.ch.lib.shacl.ShaclService;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.shacl.ShaclValidator;
+import org.apache.jena.shacl.ValidationReport;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+@Service
+public class ShapeValidationService {
+    private final ShaclService shaclService;
+    private final ValidationProfile validationProfile;
+    private final ValidationMetrics metrics;
+    @Value("${shacl.targetIndex.enabled}")
+    private boolean targetIndexEnabled;
+
+    public ShapeValidationService(ShaclService shaclService, ValidationProfile validationProfile,
+            ValidationMetrics metrics) {
+        this.shaclService = shaclService;
+        this.validationProfile = validationProfile;
+        this.metrics = metrics;
+    }
+
+    /**
+     * the shacl service is configured with the default profile at startup, other profiles are validated with jena
+     * directly when the target index is disabled.
+     */
+    public ValidationReport validate(ValidationProfile profile, Graph data) {
+        return metrics.stage("validate", () -> {
+            if (targetIndexEnabled) {
+                return profile.shapeIndex().validate(data);
+            }
+            if (profile.hash().equals(validationProfile.hash())) {
+                return shaclService.validate(data);
+            }
+            return ShaclValidator.get().validate(profile.shapes(), data);
+        });
+    }
+}
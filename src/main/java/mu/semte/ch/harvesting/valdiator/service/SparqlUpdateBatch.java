@@ -0,0 +1,198 @@
+package mu.semte.ch.harvesting.valdiator.service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * collects sparql updates and sends them as a single multi-statement update,
+ * when batchSize updates are pending or maxDelay has elapsed. a maxDelay of zero or less only sends on batchSize and
+ * on flush or close.
+ * updates are sent asynchronously, one send at a time: the updates added while a send is in flight are sent
+ * together once it completes, and adding waits only when maxPending updates are already waiting.
+ * the sender retries the updates it can, a failed send fails the batch: its updates and callbacks are dropped, and
+ * adding to, flushing or closing the batch throws from then on.
+ * callbacks registered with {@link #afterFlush(Runnable)} run once the updates added before them are sent.
+ */
+@Slf4j
+public class SparqlUpdateBatch implements AutoCloseable {
+    private final Function<String, CompletableFuture<Void>> sender;
+    private final int batchSize;
+    private final int maxPending;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition sent = lock.newCondition();
+    private final List<String> pending = new ArrayList<>();
+    private final List<Runnable> callbacks = new ArrayList<>();
+    private final ScheduledFuture<?> timer;
+    private boolean sending;
+    private Throwable failure;
+
+    public SparqlUpdateBatch(Function<String, CompletableFuture<Void>> sender, int batchSize, Duration maxDelay,
+            ScheduledExecutorService scheduler) {
+        this.sender = sender;
+        this.batchSize = Math.max(1, batchSize);
+        this.maxPending = 4 * this.batchSize;
+        var delay = Objects.requireNonNull(maxDelay, "maxDelay").toMillis();
+        this.timer = delay > 0
+                ? scheduler.scheduleWithFixedDelay(this::flushQuietly, delay, delay, TimeUnit.MILLISECONDS)
+                : null;
+    }
+
+    public void add(String update) {
+        lock.lock();
+        try {
+            while (sending && pending.size() >= maxPending) {
+                sent.awaitUninterruptibly();
+            }
+            checkNotFailed();
+            pending.add(update);
+            if (pending.size() >= batchSize) {
+                send();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void afterFlush(Runnable callback) {
+        lock.lock();
+        try {
+            checkNotFailed();
+            callbacks.add(callback);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * starts sending the pending updates, unless a send is in flight.
+     */
+    public void flush() {
+        lock.lock();
+        try {
+            checkNotFailed();
+            send();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * drops the pending updates and their callbacks, a send in flight still completes.
+     */
+    public void discard() {
+        lock.lock();
+        try {
+            log.info("discarding {} pending sparql updates", pending.size());
+            pending.clear();
+            callbacks.clear();
+            sent.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void checkNotFailed() {
+        if (failure != null) {
+            throw new IllegalStateException("could not send sparql updates", failure);
+        }
+    }
+
+    private void send() {
+        if (sending || failure != null || (pending.isEmpty() && callbacks.isEmpty())) {
+            return;
+        }
+        var updates = new ArrayList<>(pending);
+        var flushed = new ArrayList<>(callbacks);
+        pending.clear();
+        callbacks.clear();
+        sending = true;
+        log.debug("flushing {} sparql updates", updates.size());
+        CompletableFuture<Void> future;
+        try {
+            future = updates.isEmpty()
+                    ? CompletableFuture.completedFuture(null)
+                    : sender.apply(String.join(";\n", updates));
+        } catch (RuntimeException e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+        future.whenComplete((ignored, e) -> completed(updates, flushed, e));
+    }
+
+    private void completed(List<String> updates, List<Runnable> flushed, Throwable e) {
+        if (e == null) {
+            for (var callback : flushed) {
+                try {
+                    callback.run();
+                } catch (Exception callbackFailure) {
+                    log.warn("after flush callback failed", callbackFailure);
+                }
+            }
+        }
+        lock.lock();
+        try {
+            if (e != null) {
+                log.error("could not send {} sparql updates, dropping the {} pending ones", updates.size(),
+                        pending.size(), e);
+                failure = e;
+                pending.clear();
+                callbacks.clear();
+                cancelTimer();
+            }
+            sending = false;
+            sent.signalAll();
+            if (e == null && pending.size() >= batchSize) {
+                send();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void cancelTimer() {
+        if (timer != null) {
+            timer.cancel(false);
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Throwable e) {
+            log.warn("could not flush sparql updates", e);
+        }
+    }
+
+    /**
+     * sends the pending updates and waits until they are all sent, throws when a send fails.
+     */
+    @Override
+    public void close() {
+        cancelTimer();
+        lock.lock();
+        try {
+            while (sending) {
+                sent.awaitUninterruptibly();
+            }
+            checkNotFailed();
+            while (!pending.isEmpty() || !callbacks.isEmpty()) {
+                send();
+                while (sending) {
+                    sent.awaitUninterruptibly();
+                }
+                checkNotFailed();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package mu.semte.ch.harvesting.valdiator.service;
+
+import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.system.StreamRDFBase;
+
+/**
+ * groups a stream of triples into chunks of about chunkSize triples.
+ * a chunk is only cut before a new iri subject and once every blank node of the chunk
+ * has been seen both as subject and as object, so a resource and its blank node closure stay together.
+ * the triples of a subject are expected to be contiguous, as written by the harvester. a chunker that checks it
+ * remembers the iri subjects of the chunks it cut, and {@link #splitsSubject()} tells whether one came back in a
+ * later chunk, i.e. would be validated in two parts.
+ * if the closure never balances (e.g. dangling blank nodes), the chunk is cut anyway at four times the chunk size.
+ */
+@Slf4j
+class SubjectChunker extends StreamRDFBase {
+    private final int chunkSize;
+    private final Consumer<List<Triple>> onChunk;
+    private List<Triple> chunk = new ArrayList<>();
+    private final Set<Node> subjects = new HashSet<>();
+    private final Set<Node> blankSubjects = new HashSet<>();
+    private final Set<Node> blankObjects = new HashSet<>();
+    private final Set<Node> unbalancedBlankNodes = new HashSet<>();
+    private final SubjectHashes cutSubjects;
+    private boolean splitsSubject;
+
+    SubjectChunker(int chunkSize, Consumer<List<Triple>> onChunk) {
+        this(chunkSize, false, onChunk);
+    }
+
+    SubjectChunker(int chunkSize, boolean checkContiguous, Consumer<List<Triple>> onChunk) {
+        this.chunkSize = Math.max(1, chunkSize);
+        this.onChunk = onChunk;
+        this.cutSubjects = checkContiguous ? new SubjectHashes() : null;
+    }
+
+    /**
+     * true when an iri subject was seen again after the chunk it was in was cut, only known if checkContiguous.
+     */
+    boolean splitsSubject() {
+        return splitsSubject;
+    }
+
+    @Override
+    public void triple(Triple triple) {
+        var subject = triple.getSubject();
+        if (cutSubjects != null && !splitsSubject && subject.isURI() && cutSubjects.contains(subject)) {
+            splitsSubject = true;
+        }
+        if (chunk.size() >= chunkSize && !subject.isBlank() && !subjects.contains(subject)) {
+            if (unbalancedBlankNodes.isEmpty()) {
+                emit();
+            } else if (chunk.size() >= chunkSize * 4) {
+                log.debug("cutting chunk with {} unbalanced blank nodes", unbalancedBlankNodes.size());
+                emit();
+            }
+        }
+        chunk.add(triple);
+        subjects.add(subject);
+        if (subject.isBlank() && blankSubjects.add(subject)) {
+            balance(subject, blankObjects);
+        }
+        var object = triple.getObject();
+        if (object.isBlank() && blankObjects.add(object)) {
+            balance(object, blankSubjects);
+        }
+    }
+
+    private void balance(Node blankNode, Set<Node> counterpart) {
+        if (counterpart.contains(blankNode)) {
+            unbalancedBlankNodes.remove(blankNode);
+        } else {
+            unbalancedBlankNodes.add(blankNode);
+        }
+    }
+
+    @Override
+    public void finish() {
+        if (!chunk.isEmpty()) {
+            emit();
+        }
+    }
+
+    private void emit() {
+        var triples = chunk;
+        chunk = new ArrayList<>();
+        if (cutSubjects != null) {
+            subjects.stream().filter(Node::isURI).forEach(cutSubjects::add);
+        }
+        subjects.clear();
+        blankSubjects.clear();
+        blankObjects.clear();
+        unbalancedBlankNodes.clear();
+        onChunk.accept(triples);
+    }
+
+    /**
+     * 64 bit hashes of iri subjects in an open addressing table, 8 to 16 bytes per subject instead of the nodes.
+     * two subjects with the same hash only make a file be validated as a whole.
+     */
+    private static class SubjectHashes {
+        private long[] table = new long[1024];
+        private int count;
+
+        boolean contains(Node subject) {
+            var hash = hash(subject);
+            var mask = table.length - 1;
+            for (var slot = (int) hash & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+                if (table[slot] == hash) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void add(Node subject) {
+            var hash = hash(subject);
+            var mask = table.length - 1;
+            var slot = (int) hash & mask;
+            for (; table[slot] != 0; slot = (slot + 1) & mask) {
+                if (table[slot] == hash) {
+                    return;
+                }
+            }
+            table[slot] = hash;
+            if (++count * 2 > table.length) {
+                rehash();
+            }
+        }
+
+        private void rehash() {
+            var old = table;
+            table = new long[old.length * 2];
+            var mask = table.length - 1;
+            for (var hash : old) {
+                if (hash != 0) {
+                    var slot = (int) hash & mask;
+                    while (table[slot] != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    table[slot] = hash;
+                }
+            }
+        }
+
+        private static long hash(Node subject) {
+            var hash = Hashing.murmur3_128().hashString(subject.getURI(), StandardCharsets.UTF_8).asLong();
+            // 0 marks an empty slot
+            return hash == 0 ? 1 : hash;
+        }
+    }
+}
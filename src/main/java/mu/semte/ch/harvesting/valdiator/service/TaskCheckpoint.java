@@ -0,0 +1,119 @@
+package mu.semte.ch.harvesting.valdiator.service;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import lombok.extern.slf4j.Slf4j;
+import mu.semte.ch.harvesting.valdiator.service.TaskService.PathByDerived;
+import mu.semte.ch.lib.dto.DataContainer;
+
+/**
+ * append only journal of a task, so that a retry continues where the previous run stopped.
+ * it records the result containers of the task, so a retry appends to the same containers,
+ * and every input file once its result files are registered in the triplestore.
+ * one tab separated entry per line, a truncated last line (crash while writing) is ignored.
+ */
+@Slf4j
+public class TaskCheckpoint implements AutoCloseable {
+    private static final String CONTAINER = "container";
+    private static final String DONE = "done";
+
+    private final File journal;
+    private final Map<String, DataContainer> containers = new HashMap<>();
+    private final Set<String> done = new HashSet<>();
+    private final BufferedWriter writer;
+
+    private TaskCheckpoint(File journal) throws IOException {
+        this.journal = journal;
+        var truncated = false;
+        if (journal.exists()) {
+            var content = Files.readString(journal.toPath(), StandardCharsets.UTF_8);
+            truncated = !content.isEmpty() && !content.endsWith("\n");
+            var lines = content.split("\n", -1);
+            // the last element is empty, or a line truncated by a crash
+            for (var i = 0; i < lines.length - 1; i++) {
+                read(lines[i]);
+            }
+            log.info("resuming from checkpoint {}, {} file(s) already done", journal, done.size());
+        }
+        this.writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(journal, true),
+                StandardCharsets.UTF_8));
+        if (truncated) {
+            writer.write('\n');
+        }
+    }
+
+    public static TaskCheckpoint open(File journal) throws IOException {
+        return new TaskCheckpoint(journal);
+    }
+
+    private void read(String line) {
+        var fields = line.split("\t", -1);
+        if (CONTAINER.equals(fields[0]) && fields.length == 4) {
+            containers.put(fields[1], DataContainer.builder().id(fields[2]).uri(fields[3]).build());
+        } else if (DONE.equals(fields[0]) && fields.length == 3) {
+            done.add(key(fields[1], fields[2]));
+        } else if (!line.isBlank()) {
+            log.warn("ignoring malformed checkpoint entry '{}'", line);
+        }
+    }
+
+    /**
+     * the container recorded under name by a previous run, or the given one, recorded for the next runs.
+     */
+    public synchronized DataContainer container(String name, DataContainer newContainer) {
+        var existing = containers.get(name);
+        if (existing != null) {
+            return existing;
+        }
+        append(String.join("\t", CONTAINER, name, newContainer.getId(), newContainer.getUri()));
+        containers.put(name, newContainer);
+        return newContainer;
+    }
+
+    public synchronized boolean isDone(PathByDerived pathByDerived) {
+        return done.contains(key(pathByDerived.derivedFrom(), pathByDerived.path()));
+    }
+
+    public synchronized void markDone(PathByDerived pathByDerived) {
+        if (done.add(key(pathByDerived.derivedFrom(), pathByDerived.path()))) {
+            append(String.join("\t", DONE, pathByDerived.derivedFrom(), pathByDerived.path()));
+        }
+    }
+
+    private void append(String entry) {
+        try {
+            writer.write(entry);
+            writer.write('\n');
+            writer.flush();
+        } catch (IOException e) {
+            // losing an entry only means the file is validated again on retry
+            log.warn("could not write checkpoint entry to {}", journal, e);
+        }
+    }
+
+    private static String key(String derivedFrom, String path) {
+        return derivedFrom + "\t" + path;
+    }
+
+    /**
+     * to be called once the task is done, a later run starts from scratch.
+     */
+    public synchronized void delete() throws IOException {
+        writer.close();
+        Files.deleteIfExists(journal.toPath());
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writer.close();
+    }
+}
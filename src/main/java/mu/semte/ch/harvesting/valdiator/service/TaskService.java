@@ -3,17 +3,37 @@ package mu.semte.ch.harvesting.valdiator.service;
 import static java.util.Optional.ofNullable;
 import static mu.semte.ch.harvesting.valdiator.Constants.ERROR_URI_PREFIX;
 import static mu.semte.ch.harvesting.valdiator.Constants.LOGICAL_FILE_PREFIX;
+import static mu.semte.ch.harvesting.valdiator.Constants.STATUS_BUSY;
+import static mu.semte.ch.harvesting.valdiator.Constants.TASK_HARVESTING_FILTERING;
+import static mu.semte.ch.harvesting.valdiator.Constants.VALID_TRIPLES_FILE_NAME;
 import static mu.semte.ch.lib.utils.ModelUtils.*;
 
 import com.google.common.collect.ImmutableMap;
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import mu.semte.ch.lib.dto.DataContainer;
@@ -22,11 +42,15 @@ import mu.semte.ch.lib.utils.ModelUtils;
 import mu.semte.ch.lib.utils.SparqlClient;
 import mu.semte.ch.lib.utils.SparqlQueryStore;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.jena.rdf.model.Literal;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.ModelFactory;
 import org.apache.jena.rdf.model.Resource;
 import org.apache.jena.riot.Lang;
-import org.apache.jena.riot.RDFLanguages;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.RDFParser;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
@@ -36,57 +60,97 @@ public class TaskService {
 
   public record TaskWithJobId(Task task, String jobId) {}
 
+  public record TaskShard(String uri, int index, boolean done) {}
+
   private final SparqlQueryStore queryStore;
   private final SparqlClient sparqlClient;
+  private final AsyncSparqlClient asyncSparqlClient;
+  private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+  private final ValidationMetrics metrics;
+  private final ResultFileFormat resultFileFormat;
+  private final ScheduledExecutorService batchScheduler = Executors.newSingleThreadScheduledExecutor(
+      Thread.ofPlatform().daemon().name("sparql-batch-flush").factory());
   @Value("${share-folder.path}")
   private String shareFolderPath;
   @Value("${sparql.defaultBatchSize}")
   private int defaultBatchSize;
+  @Value("${sparql.batchFlushIntervalMs}")
+  private long batchFlushIntervalMs;
   @Value("${sparql.defaultLimitSize}")
   private int defaultLimitSize;
-  @Value("${sparql.maxRetry}")
-  private int maxRetry;
   @Value("${sparql.highLoadSparqlEndpoint}")
   private String highLoadSparqlEndpoint;
   @Value("${sparql.endpoint}")
   private String defaultSparqlEndpoint;
+  @Value("${application.validation.compactGraph}")
+  private boolean compactGraph;
 
-  public TaskService(SparqlQueryStore queryStore, SparqlClient sparqlClient) {
+  public TaskService(SparqlQueryStore queryStore, SparqlClient sparqlClient, AsyncSparqlClient asyncSparqlClient,
+      AdaptiveConcurrencyLimiter concurrencyLimiter, ValidationMetrics metrics,
+      ResultFileFormat resultFileFormat) {
     this.queryStore = queryStore;
     this.sparqlClient = sparqlClient;
+    this.asyncSparqlClient = asyncSparqlClient;
+    this.concurrencyLimiter = concurrencyLimiter;
+    this.metrics = metrics;
+    this.resultFileFormat = resultFileFormat;
+  }
+
+  /**
+   * sends an update without waiting for it, its latency and outcome feed the concurrency limiter.
+   */
+  private CompletableFuture<Void> sendUpdate(String queryName, String queryStr, String endpoint) {
+    var start = System.nanoTime();
+    return asyncSparqlClient.update(queryName, queryStr, endpoint)
+        .whenComplete((ignored, e) -> concurrencyLimiter.recordUpdate(System.nanoTime() - start, e == null));
+  }
+
+  private void executeUpdate(String queryName, String queryStr, String endpoint) {
+    try {
+      sendUpdate(queryName, queryStr, endpoint).join();
+    } catch (CompletionException e) {
+      throw e.getCause() instanceof RuntimeException cause ? cause : e;
+    }
+  }
+
+  public SparqlUpdateBatch openUpdateBatch() {
+    return new SparqlUpdateBatch(updates -> sendUpdate("updateBatch", updates, highLoadSparqlEndpoint),
+        defaultBatchSize, Duration.ofMillis(batchFlushIntervalMs), batchScheduler);
   }
 
   public boolean isTask(String subject) {
     String queryStr = queryStore.getQuery("isTask").formatted(subject);
 
-    return sparqlClient.executeAskQuery(queryStr, highLoadSparqlEndpoint, true);
+    return metrics.sparql("isTask", "ask",
+        () -> sparqlClient.executeAskQuery(queryStr, highLoadSparqlEndpoint, true));
   }
 
   public TaskWithJobId loadTask(String deltaEntry) {
     String queryTask = queryStore.getQuery("loadTask").formatted(deltaEntry);
 
-    return sparqlClient.executeSelectQuery(queryTask, resultSet -> {
-      if (!resultSet.hasNext()) {
-        return new TaskWithJobId(null, null);
-      }
-      var t = resultSet.next();
-      var task = new TaskWithJobId(Task.builder()
-          .task(t.getResource("task").getURI())
-          .job(t.getResource("job").getURI())
-          .error(ofNullable(t.getResource("error"))
-              .map(Resource::getURI)
-              .orElse(null))
-          .id(t.getLiteral("id").getString())
-          .created(t.getLiteral("created").getString())
-          .modified(t.getLiteral("modified").getString())
-          .operation(t.getResource("operation").getURI())
-          .index(t.getLiteral("index").getString())
-          .graph(t.getResource("graph").getURI())
-          .status(t.getResource("status").getURI())
-          .build(),t.getLiteral("jobId").getString());
-      log.debug("task: {}", task);
-      return task;
-    }, highLoadSparqlEndpoint, true);
+    return metrics.sparql("loadTask", "select",
+        () -> sparqlClient.executeSelectQuery(queryTask, resultSet -> {
+          if (!resultSet.hasNext()) {
+            return new TaskWithJobId(null, null);
+          }
+          var t = resultSet.next();
+          var task = new TaskWithJobId(Task.builder()
+              .task(t.getResource("task").getURI())
+              .job(t.getResource("job").getURI())
+              .error(ofNullable(t.getResource("error"))
+                  .map(Resource::getURI)
+                  .orElse(null))
+              .id(t.getLiteral("id").getString())
+              .created(t.getLiteral("created").getString())
+              .modified(t.getLiteral("modified").getString())
+              .operation(t.getResource("operation").getURI())
+              .index(t.getLiteral("index").getString())
+              .graph(t.getResource("graph").getURI())
+              .status(t.getResource("status").getURI())
+              .build(),t.getLiteral("jobId").getString());
+          log.debug("task: {}", task);
+          return task;
+        }, highLoadSparqlEndpoint, true));
   }
 
   @Deprecated
@@ -120,82 +184,170 @@ public class TaskService {
   }
 
   @SneakyThrows
-  public Model fetchValidationGraphByDerivedFrom(String containerUri,
+  public Optional<Model> fetchValidationGraphByDerivedFrom(String containerUri,
       String derivedFrom) {
     var query = queryStore.getQueryWithParameters(
         "fetchValidationGraphByDerivedFrom",
         Map.of("source", containerUri, "derivedFrom", derivedFrom));
-    var path = sparqlClient.executeSelectQuery(query, resultSet -> {
-      if (!resultSet.hasNext()) {
-        return null;
-      }
-      var qs = resultSet.next();
-
-      return qs.getResource("path").getURI();
-    }, highLoadSparqlEndpoint, true);
+    var path = metrics.sparql("fetchValidationGraphByDerivedFrom", "select",
+        () -> sparqlClient.executeSelectQuery(query, resultSet -> {
+          if (!resultSet.hasNext()) {
+            return null;
+          }
+          var qs = resultSet.next();
+
+          return qs.getResource("path").getURI();
+        }, highLoadSparqlEndpoint, true));
     if (path == null) {
-      throw new RuntimeException("%s and derived from %s not found".formatted(
-          containerUri, derivedFrom));
+      log.debug("{} and derived from {} not found", containerUri, derivedFrom);
+      return Optional.empty();
     }
     path = path.replace("share://", "");
     var file = new File(shareFolderPath, path);
 
     if (!file.exists()) {
-      throw new RuntimeException("file %s doesn't exist".formatted(path));
+      log.warn("file {} doesn't exist", path);
+      return Optional.empty();
     }
-    return ModelUtils.toModel(FileUtils.openInputStream(file), Lang.TURTLE);
+    // read from the path, so that the syntax follows the extension and a .gz file is decompressed
+    var model = ModelFactory.createDefaultModel();
+    RDFDataMgr.read(model, file.getPath(), Lang.TURTLE);
+    return Optional.of(model);
   }
 
-  @SneakyThrows
-  public int countTriplesFromFileInputContainer(String fileContainerUri) {
-    var query = queryStore.getQueryWithParameters(
-        "countTripleFromFileInputContainer",
-        Map.of("container", fileContainerUri));
-    return sparqlClient.executeSelectQuery(query, resultSet -> {
-      if (!resultSet.hasNext()) {
-        return 0;
-      }
-      return resultSet.next().getLiteral("count").getInt();
-    }, highLoadSparqlEndpoint, true);
+  /**
+   * the result files of the last filtering of derivedFrom outside the given file container, by logical file name.
+   * empty when there is none, or when it was not filtered with the given shapes.
+   */
+  public Map<String, File> fetchPreviousResultFiles(String derivedFrom, String currentContainerUri,
+      String shapesHash) {
+    var query = queryStore.getQueryWithParameters("fetchPreviousResultFiles",
+        Map.of("derivedFrom", derivedFrom, "currentContainer", currentContainerUri,
+            "validFileName", VALID_TRIPLES_FILE_NAME));
+    return metrics.sparql("fetchPreviousResultFiles", "select",
+        () -> sparqlClient.executeSelectQuery(query, resultSet -> {
+          var files = new HashMap<String, File>();
+          while (resultSet.hasNext()) {
+            var qs = resultSet.next();
+            var hash = ofNullable(qs.getLiteral("shapesHash")).map(Literal::getString).orElse(null);
+            if (!shapesHash.equals(hash)) {
+              log.debug("previous result of {} was not filtered with the current shapes", derivedFrom);
+              return Map.<String, File>of();
+            }
+            var file = new File(shareFolderPath, qs.getResource("path").getURI().replace("share://", ""));
+            if (!file.exists()) {
+              log.warn("file {} doesn't exist", file);
+              return Map.<String, File>of();
+            }
+            files.put(qs.getLiteral("logicalFileName").getString(), file);
+          }
+          return files;
+        }, highLoadSparqlEndpoint, true));
   }
 
-  @SneakyThrows
-  public List<ModelByDerived> fetchTripleFromFileInputContainer(String fileContainerUri, int limitSize,
-      int offset) {
-    var query = queryStore.getQueryWithParameters(
-        "fetchTripleFromFileInputContainer",
-        Map.of("container", fileContainerUri, "limitSize", limitSize,
-            "offsetNumber", offset));
-    var pathsByDerived = sparqlClient.executeSelectQuery(query, resultSet -> {
-      var byDerived = new ArrayList<PathByDerived>();
-      while (resultSet.hasNext()) {
-        var qs = resultSet.next();
-        byDerived.add(new PathByDerived(qs.getResource("derivedFrom").getURI(),
-            qs.getResource("path").getURI()));
+  public Stream<PathByDerived> streamFilesFromInputContainer(String fileContainerUri) {
+    var files = new Iterator<PathByDerived>() {
+      private final Deque<PathByDerived> page = new ArrayDeque<>();
+      private PathByDerived last;
+      private boolean exhausted;
+
+      @Override
+      public boolean hasNext() {
+        if (page.isEmpty() && !exhausted) {
+          var next = fetchFilesFromInputContainer(fileContainerUri, last, defaultLimitSize);
+          exhausted = next.size() < defaultLimitSize;
+          page.addAll(next);
+        }
+        return !page.isEmpty();
       }
 
-      return byDerived;
-    }, highLoadSparqlEndpoint, true);
+      @Override
+      public PathByDerived next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        last = page.poll();
+        return last;
+      }
+    };
+    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(files,
+        Spliterator.ORDERED | Spliterator.NONNULL), false);
+  }
+
+  public long countFilesFromInputContainer(String fileContainerUri) {
+    var query = queryStore.getQueryWithParameters("countFilesFromInputContainer",
+        Map.of("container", fileContainerUri));
+    return metrics.sparql("countFilesFromInputContainer", "select",
+        () -> sparqlClient.executeSelectQuery(query, resultSet -> {
+          if (!resultSet.hasNext()) {
+            return 0L;
+          }
+          return resultSet.next().getLiteral("count").getLong();
+        }, highLoadSparqlEndpoint, true));
+  }
 
-    if (pathsByDerived.isEmpty()) {
+  private List<PathByDerived> fetchFilesFromInputContainer(String fileContainerUri, PathByDerived after,
+      int limitSize) {
+    var parameters = new HashMap<String, Object>(Map.of("container", fileContainerUri, "limitSize", limitSize));
+    if (after != null) {
+      parameters.put("lastPath", after.path());
+      parameters.put("lastDerivedFrom", after.derivedFrom());
+    }
+    var query = queryStore.getQueryWithParameters("fetchTripleFromFileInputContainer", parameters);
+    var pathsByDerived = metrics.sparql("fetchTripleFromFileInputContainer", "select",
+        () -> sparqlClient.executeSelectQuery(query, resultSet -> {
+          var byDerived = new ArrayList<PathByDerived>();
+          while (resultSet.hasNext()) {
+            var qs = resultSet.next();
+            byDerived.add(new PathByDerived(qs.getResource("derivedFrom").getURI(),
+                qs.getResource("path").getURI()));
+          }
+
+          return byDerived;
+        }, highLoadSparqlEndpoint, true));
+
+    if (pathsByDerived.isEmpty() && after == null) {
       log.warn(" files '{}' not found, query: \n {}", fileContainerUri, query);
     }
+    return pathsByDerived;
+  }
 
-    var modelsByDerived = new ArrayList<ModelByDerived>();
-    for (var pbd : pathsByDerived) {
-      var path = pbd.path.replace("share://", "");
-      var file = new File(shareFolderPath, path);
-      if (!file.exists()) {
-        log.warn("file {} doesn't exist", path);
-      } else {
-        var modelByDerived = new ModelByDerived(
-            pbd.derivedFrom,
-            ModelUtils.toModel(FileUtils.openInputStream(file), Lang.TURTLE));
-        modelsByDerived.add(modelByDerived);
-      }
+  public Optional<File> resolveFile(PathByDerived pathByDerived) {
+    var path = pathByDerived.path().replace("share://", "");
+    var file = new File(shareFolderPath, path);
+    if (!file.exists()) {
+      log.warn("file {} doesn't exist", path);
+      return Optional.empty();
+    }
+    return Optional.of(file);
+  }
 
+  /**
+   * parses a file, in a read-only {@link CompactGraph} unless disabled.
+   * the nodes are interned by the interner of the task, if any.
+   */
+  @SneakyThrows
+  public ModelByDerived loadModel(PathByDerived pathByDerived, File file, NodeInterner interner) {
+    try (var is = FileUtils.openInputStream(file)) {
+      return new ModelByDerived(pathByDerived.derivedFrom(),
+          metrics.stage("parse", () -> {
+            if (!compactGraph && interner == null) {
+              return ModelUtils.toModel(is, Lang.TURTLE);
+            }
+            var parser = RDFParser.source(is).lang(Lang.TURTLE);
+            if (interner != null) {
+              parser.factory(interner.factory());
+            }
+            if (!compactGraph) {
+              var model = ModelFactory.createDefaultModel();
+              parser.parse(model.getGraph());
+              return model;
+            }
+            var builder = CompactGraph.builder();
+            parser.parse(builder);
+            return ModelFactory.createModelForGraph(builder.build());
+          }));
     }
-    return modelsByDerived;
   }
 
   public void updateTaskStatus(Task task, String status) {
@@ -205,28 +357,59 @@ public class TaskService {
         .formatted(status, formattedDate(LocalDateTime.now()),
             task.getTask())
         .trim();
-    sparqlClient.executeUpdateQuery(queryUpdate, defaultSparqlEndpoint, true);
+    executeUpdate("updateTaskStatus", queryUpdate, defaultSparqlEndpoint);
   }
 
-  @SneakyThrows
-  public String writeTtlFile(String graph, ModelByDerived modelByDerived,
-      String logicalFileName, String folderId) {
-    var rdfLang = filenameToLang(logicalFileName);
-    var fileExtension = getExtension(rdfLang);
-    var contentType = getContentType(rdfLang);
-    var phyId = uuid();
-    var phyFilename = "%s.%s".formatted(phyId, fileExtension);
+  public File newResultFile(String folderId) {
+    return newFile(folderId, resultFileFormat.extension());
+  }
+
+  public File newFile(String folderId, String fileExtension) {
     var baseFolder = "%s/%s/filter".formatted(shareFolderPath, folderId);
     var rootDir = new File(baseFolder);
     if (!rootDir.mkdirs() && !rootDir.exists()) {
       throw new RuntimeException("Failed to create directory: " + baseFolder);
     }
-    var path = "%s/%s".formatted(baseFolder, phyFilename);
-    var physicalFile = "share://%s".formatted(baseFolder.replace("/share/", "") + "/" +phyFilename);
+    return new File(rootDir, "%s.%s".formatted(uuid(), fileExtension));
+  }
+
+  public TripleFileWriter openResultFile(String folderId) throws IOException {
+    return TripleFileWriter.open(newResultFile(folderId), resultFileFormat);
+  }
+
+  public TaskCheckpoint openCheckpoint(TaskWithJobId taskWithJobId) {
+    return openCheckpoint(taskWithJobId, "checkpoint-%s.log".formatted(taskWithJobId.task().getId()));
+  }
+
+  public TaskCheckpoint openCheckpoint(TaskWithJobId taskWithJobId, int shard) {
+    return openCheckpoint(taskWithJobId,
+        "checkpoint-%s-%d.log".formatted(taskWithJobId.task().getId(), shard));
+  }
+
+  @SneakyThrows
+  private TaskCheckpoint openCheckpoint(TaskWithJobId taskWithJobId, String fileName) {
+    var rootDir = new File("%s/%s/filter".formatted(shareFolderPath, taskWithJobId.jobId()));
+    if (!rootDir.mkdirs() && !rootDir.exists()) {
+      throw new RuntimeException("Failed to create directory: " + rootDir);
+    }
+    return TaskCheckpoint.open(new File(rootDir, fileName));
+  }
+
+  public String registerResultFile(String graph, File file, String derivedFrom,
+      String logicalFileName, String shapesHash, SparqlUpdateBatch batch) {
+    return registerFile(graph, file, derivedFrom, logicalFileName, resultFileFormat.contentType(),
+        resultFileFormat.extension(), shapesHash, batch);
+  }
+
+  public String registerFile(String graph, File file, String derivedFrom, String logicalFileName,
+      String contentType, String fileExtension, String shapesHash, SparqlUpdateBatch batch) {
+    var phyId = StringUtils.substringBefore(file.getName(), ".");
+    var phyFilename = file.getName();
+    var physicalFile = "share://%s".formatted(
+        FilenameUtils.separatorsToUnix(Paths.get(shareFolderPath).relativize(file.toPath()).toString()));
     var loId = uuid();
     var logicalFile = "%s/%s".formatted(LOGICAL_FILE_PREFIX, loId);
     var now = formattedDate(LocalDateTime.now());
-    var file = ModelUtils.toFile(modelByDerived.model(), RDFLanguages.NT, path);
     var fileSize = file.length();
     var queryParameters = ImmutableMap.<String, Object>builder()
         .put("graph", graph)
@@ -237,28 +420,31 @@ public class TaskService {
         .put("now", now)
         .put("fileSize", fileSize)
         .put("loId", loId)
-        .put("derivedFrom", modelByDerived.derivedFrom())
+        .put("derivedFrom", derivedFrom)
         .put("logicalFileName", logicalFileName)
-        .put("fileExtension", "ttl")
+        .put("fileExtension", fileExtension)
         .put("contentType", contentType)
+        .put("shapesHash", shapesHash)
         .build();
 
-    var queryStr = queryStore.getQueryWithParameters("writeTtlFile", queryParameters);
-    sparqlClient.executeUpdateQuery(queryStr, highLoadSparqlEndpoint, true);
+    batch.add(queryStore.getQueryWithParameters("writeTtlFile", queryParameters));
     return logicalFile;
   }
 
-  public void appendTaskResultFile(TaskWithJobId taskWithJobId, DataContainer dataContainer) {
+  public void appendTaskResultFile(TaskWithJobId taskWithJobId, DataContainer dataContainer,
+      SparqlUpdateBatch batch) {
+    batch.add(appendTaskResultFileQuery(taskWithJobId, dataContainer));
+  }
+
+  private String appendTaskResultFileQuery(TaskWithJobId taskWithJobId, DataContainer dataContainer) {
     var containerUri = dataContainer.getUri();
     var task = taskWithJobId.task();
     var containerId = dataContainer.getId();
     var fileUri = dataContainer.getGraphUri();
     var queryParameters = Map.of("containerUri", containerUri, "containerId",
         containerId, "fileUri", fileUri, "task", task);
-    var queryStr = queryStore.getQueryWithParameters("appendTaskResultFile",
+    return queryStore.getQueryWithParameters("appendTaskResultFile",
         queryParameters);
-
-    sparqlClient.executeUpdateQuery(queryStr, highLoadSparqlEndpoint, true);
   }
 
   public void appendTaskResultGraph(Task task, DataContainer dataContainer) {
@@ -266,28 +452,129 @@ public class TaskService {
     var queryStr = queryStore.getQueryWithParameters("appendTaskResultGraph",
         queryParameters);
     log.debug(queryStr);
-    sparqlClient.executeUpdateQuery(queryStr, highLoadSparqlEndpoint, true);
+    executeUpdate("appendTaskResultGraph", queryStr, highLoadSparqlEndpoint);
   }
 
   public List<DataContainer> selectInputContainer(Task task) {
     String queryTask = queryStore.getQuery("selectInputContainerGraph")
         .formatted(task.getTask());
 
-    return sparqlClient.executeSelectQuery(queryTask, resultSet -> {
-      if (!resultSet.hasNext()) {
-        throw new RuntimeException("Input container graph not found");
-      }
-      List<DataContainer> graphUris = new ArrayList<>();
-      resultSet.forEachRemaining(
-          r -> graphUris.add(DataContainer.builder()
-              .graphUri(r.getResource("graph").getURI())
-              .validationGraphUri(
-                  ofNullable(r.getResource("validationGraph"))
-                      .map(Resource::getURI)
-                      .orElse(null))
-              .build()));
-      return graphUris;
-    }, highLoadSparqlEndpoint, true);
+    return metrics.sparql("selectInputContainerGraph", "select",
+        () -> sparqlClient.executeSelectQuery(queryTask, resultSet -> {
+          if (!resultSet.hasNext()) {
+            throw new RuntimeException("Input container graph not found");
+          }
+          List<DataContainer> graphUris = new ArrayList<>();
+          resultSet.forEachRemaining(
+              r -> graphUris.add(DataContainer.builder()
+                  .graphUri(r.getResource("graph").getURI())
+                  .validationGraphUri(
+                      ofNullable(r.getResource("validationGraph"))
+                          .map(Resource::getURI)
+                          .orElse(null))
+                  .build()));
+          return graphUris;
+        }, highLoadSparqlEndpoint, true));
+  }
+
+  /**
+   * the ext:applicationProfile of the job of the task, a file name (or an iri ending with it) in the profiles
+   * directory.
+   */
+  public Optional<String> selectJobApplicationProfile(Task task) {
+    var queryStr = queryStore.getQueryWithParameters("selectJobApplicationProfile", Map.of("task", task));
+    return metrics.sparql("selectJobApplicationProfile", "select",
+        () -> sparqlClient.executeSelectQuery(queryStr, resultSet -> {
+          if (!resultSet.hasNext()) {
+            return Optional.<String>empty();
+          }
+          var profile = resultSet.next().get("profile");
+          return Optional.of(profile.isURIResource()
+              ? profile.asResource().getURI()
+              : profile.asLiteral().getString());
+        }, defaultSparqlEndpoint, true));
+  }
+
+  /**
+   * records shardCount shards and the result containers shared by the replicas on the task,
+   * unless another replica did it first.
+   */
+  public void planTaskShards(Task task, int shardCount, Map<String, DataContainer> containers) {
+    var queryStr = queryStore.getQueryWithParameters("planTaskShards",
+        Map.of("task", task, "shardCount", shardCount, "containers", containers));
+    executeUpdate("planTaskShards", queryStr, defaultSparqlEndpoint);
+  }
+
+  public Map<String, DataContainer> selectTaskShardContainers(Task task) {
+    var queryStr = queryStore.getQueryWithParameters("selectTaskShardContainers", Map.of("task", task));
+    return metrics.sparql("selectTaskShardContainers", "select",
+        () -> sparqlClient.executeSelectQuery(queryStr, resultSet -> {
+          var containers = new HashMap<String, DataContainer>();
+          resultSet.forEachRemaining(r -> containers.put(r.getLiteral("name").getString(),
+              DataContainer.builder()
+                  .uri(r.getResource("container").getURI())
+                  .id(r.getLiteral("id").getString())
+                  .build()));
+          return containers;
+        }, defaultSparqlEndpoint, true));
+  }
+
+  public List<TaskShard> selectTaskShards(Task task) {
+    var queryStr = queryStore.getQueryWithParameters("selectTaskShards", Map.of("task", task));
+    return metrics.sparql("selectTaskShards", "select",
+        () -> sparqlClient.executeSelectQuery(queryStr, resultSet -> {
+          var shards = new ArrayList<TaskShard>();
+          resultSet.forEachRemaining(r -> shards.add(new TaskShard(r.getResource("shard").getURI(),
+              r.getLiteral("index").getInt(), r.contains("done"))));
+          return shards;
+        }, defaultSparqlEndpoint, true));
+  }
+
+  /**
+   * leases the shard to the replica until expires, if it is not done and its lease is free, expired or already
+   * held by the replica. true when the replica holds the lease afterwards.
+   */
+  public boolean claimTaskShard(Task task, String shard, String replica, Instant expires) {
+    var parameters = Map.<String, Object>of("task", task, "shard", shard, "replica", replica,
+        "now", Instant.now().toString(), "expires", expires.toString());
+    executeUpdate("claimTaskShard", queryStore.getQueryWithParameters("claimTaskShard", parameters),
+        defaultSparqlEndpoint);
+    var ask = queryStore.getQueryWithParameters("isTaskShardLeased", parameters);
+    return metrics.sparql("isTaskShardLeased", "ask",
+        () -> sparqlClient.executeAskQuery(ask, defaultSparqlEndpoint, true));
+  }
+
+  public void releaseTaskShard(Task task, String shard, String replica, boolean done) {
+    var parameters = Map.<String, Object>of("task", task, "shard", shard, "replica", replica, "done", done);
+    executeUpdate("releaseTaskShard", queryStore.getQueryWithParameters("releaseTaskShard", parameters),
+        defaultSparqlEndpoint);
+  }
+
+  /**
+   * marks the busy task as completed by the replica once all its shards are done, unless another replica did.
+   * true when the replica is the one completing the task.
+   */
+  public boolean completeShardedTask(Task task, String replica) {
+    var parameters = Map.<String, Object>of("task", task, "replica", replica, "busy", STATUS_BUSY);
+    executeUpdate("completeShardedTask", queryStore.getQueryWithParameters("completeShardedTask", parameters),
+        defaultSparqlEndpoint);
+    var ask = queryStore.getQueryWithParameters("isShardedTaskCompleted", parameters);
+    return metrics.sparql("isShardedTaskCompleted", "ask",
+        () -> sparqlClient.executeAskQuery(ask, defaultSparqlEndpoint, true));
+  }
+
+  /**
+   * busy filtering tasks with a shard that is not done and not leased, or whose lease expired.
+   */
+  public List<String> selectShardedTasks() {
+    var queryStr = queryStore.getQueryWithParameters("selectShardedTasks", Map.of("busy", STATUS_BUSY,
+        "operation", TASK_HARVESTING_FILTERING, "now", Instant.now().toString()));
+    return metrics.sparql("selectShardedTasks", "select",
+        () -> sparqlClient.executeSelectQuery(queryStr, resultSet -> {
+          var tasks = new ArrayList<String>();
+          resultSet.forEachRemaining(r -> tasks.add(r.getResource("task").getURI()));
+          return tasks;
+        }, defaultSparqlEndpoint, true));
   }
 
   public void appendTaskError(Task task, String message) {
@@ -300,6 +587,6 @@ public class TaskService {
         ofNullable(message).orElse("Unexpected error"));
     var queryStr = queryStore.getQueryWithParameters("appendTaskError", parameters);
 
-    sparqlClient.executeUpdateQuery(queryStr, defaultSparqlEndpoint, true);
+    executeUpdate("appendTaskError", queryStr, defaultSparqlEndpoint);
   }
 }
@@ -0,0 +1,204 @@
+package mu.semte.ch.harvesting.valdiator.service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import lombok.extern.slf4j.Slf4j;
+import mu.semte.ch.harvesting.valdiator.service.TaskService.TaskWithJobId;
+import mu.semte.ch.lib.dto.DataContainer;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * splits the files of a task in shards that several replicas filter at the same time.
+ * a file belongs to the shard of the hash of its derivedFrom. the shards, and the result containers they share,
+ * are recorded on the task in its graph, and a replica leases a shard before filtering it.
+ * the lease is renewed while the replica works on the shard, so the shard of a dead replica is leased again once
+ * its lease expired. a replica that loses the lease of a shard stops filtering it, and leaves it to the replica that
+ * leased it. the replica that finds every shard done completes the task.
+ * lease times are taken from the clock of the replicas, which should be kept in sync.
+ */
+@Service
+@Slf4j
+public class TaskShardService {
+    private final TaskService taskService;
+    private final int shardCount;
+    private final Duration leaseDuration;
+    private final String replicaId;
+    private final ScheduledExecutorService leaseScheduler = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().daemon().name("shard-lease-renewal").factory());
+
+    public TaskShardService(TaskService taskService,
+            @Value("${application.sharding.shards}") int shardCount,
+            @Value("${application.sharding.leaseSeconds}") long leaseSeconds,
+            @Value("${application.sharding.replicaId}") String replicaId) {
+        this.taskService = taskService;
+        this.shardCount = Math.max(1, shardCount);
+        this.leaseDuration = Duration.ofSeconds(Math.max(3, leaseSeconds));
+        this.replicaId = StringUtils.isBlank(replicaId) ? UUID.randomUUID().toString() : replicaId;
+        if (isEnabled()) {
+            log.info("filtering tasks in {} shards as replica {}", this.shardCount, this.replicaId);
+        }
+    }
+
+    public boolean isEnabled() {
+        return shardCount > 1;
+    }
+
+    /**
+     * the result containers shared by the shards of the task, the given ones when this replica plans the shards.
+     */
+    public Map<String, DataContainer> plan(TaskWithJobId taskWithJobId, Map<String, DataContainer> containers) {
+        var task = taskWithJobId.task();
+        taskService.planTaskShards(task, shardCount, containers);
+        var planned = taskService.selectTaskShardContainers(task);
+        if (!planned.keySet().containsAll(containers.keySet())) {
+            throw new IllegalStateException("shard containers of task %s not found".formatted(task.getId()));
+        }
+        return planned;
+    }
+
+    /**
+     * leases a shard of the task that is not done, if any.
+     * replicas start looking from a different shard to avoid claiming the same one.
+     */
+    public Optional<ShardLease> claim(TaskWithJobId taskWithJobId) {
+        var task = taskWithJobId.task();
+        var shards = taskService.selectTaskShards(task);
+        var offset = Math.floorMod(replicaId.hashCode(), Math.max(1, shards.size()));
+        for (var i = 0; i < shards.size(); i++) {
+            var shard = shards.get((offset + i) % shards.size());
+            if (shard.done()) {
+                continue;
+            }
+            if (taskService.claimTaskShard(task, shard.uri(), replicaId, Instant.now().plus(leaseDuration))) {
+                log.info("leased shard {}/{} of task {}", shard.index(), shards.size(), task.getId());
+                return Optional.of(new ShardLease(taskWithJobId, shard, shards.size()));
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * true when this replica completes the task, i.e. every shard is done and no other replica completed it.
+     */
+    public boolean complete(TaskWithJobId taskWithJobId) {
+        return taskService.completeShardedTask(taskWithJobId.task(), replicaId);
+    }
+
+    public class ShardLease implements AutoCloseable {
+        private final TaskWithJobId taskWithJobId;
+        private final TaskService.TaskShard shard;
+        private final int shards;
+        private final ScheduledFuture<?> renewal;
+        private final List<Runnable> onLost = new CopyOnWriteArrayList<>();
+        // not a monitor: done() renews on a virtual thread, which must not be pinned while the claim is sent
+        private final ReentrantLock renewing = new ReentrantLock();
+        private volatile boolean lost;
+        private boolean done;
+
+        private ShardLease(TaskWithJobId taskWithJobId, TaskService.TaskShard shard, int shards) {
+            this.taskWithJobId = taskWithJobId;
+            this.shard = shard;
+            this.shards = shards;
+            var period = leaseDuration.toMillis() / 3;
+            this.renewal = leaseScheduler.scheduleAtFixedRate(this::renew, period, period, TimeUnit.MILLISECONDS);
+        }
+
+        public int index() {
+            return shard.index();
+        }
+
+        public boolean contains(String derivedFrom) {
+            return Math.floorMod(derivedFrom.hashCode(), shards) == shard.index();
+        }
+
+        /**
+         * runs the callback once the lease is lost, right away if it is already.
+         */
+        public void onLost(Runnable callback) {
+            onLost.add(callback);
+            if (lost) {
+                callback.run();
+            }
+        }
+
+        public boolean isLost() {
+            return lost;
+        }
+
+        /**
+         * runs the action if the lease is held, while it can not be lost, i.e. not while it is being renewed.
+         */
+        public void whileHeld(Runnable action) {
+            renewing.lock();
+            try {
+                if (!lost) {
+                    action.run();
+                }
+            } finally {
+                renewing.unlock();
+            }
+        }
+
+        /**
+         * true when the lease is confirmed by claiming it again. a claim that could not be sent does not confirm
+         * it, but does not lose it either, the next renewal tries again.
+         */
+        private boolean renew() {
+            renewing.lock();
+            try {
+                if (lost) {
+                    return false;
+                }
+                if (!taskService.claimTaskShard(taskWithJobId.task(), shard.uri(), replicaId,
+                        Instant.now().plus(leaseDuration))) {
+                    log.warn("lost the lease of shard {} of task {}, stopping", shard.index(),
+                            taskWithJobId.task().getId());
+                    lost = true;
+                    renewal.cancel(false);
+                    onLost.forEach(Runnable::run);
+                    return false;
+                }
+                return true;
+            } catch (RuntimeException e) {
+                log.warn("could not renew the lease of shard {} of task {}", shard.index(),
+                        taskWithJobId.task().getId(), e);
+                return false;
+            } finally {
+                renewing.unlock();
+            }
+        }
+
+        /**
+         * marks the shard done, after confirming the lease is still held. false when it was lost or could not be
+         * confirmed, the shard is then released as not done and filtered again, skipping the files of its
+         * checkpoint.
+         */
+        public boolean done() {
+            this.done = renew();
+            return done;
+        }
+
+        /**
+         * releases the lease, marking the shard done if it is.
+         */
+        @Override
+        public void close() {
+            renewal.cancel(false);
+            if (!lost) {
+                taskService.releaseTaskShard(taskWithJobId.task(), shard.uri(), replicaId, done);
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package mu.semte.ch.harvesting.valdiator.service;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.zip.GZIPOutputStream;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFWriter;
+
+/**
+ * writes triples to a file as they come, through a large buffer to limit the writes on the shared volume.
+ */
+public class TripleFileWriter implements AutoCloseable {
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private final File file;
+    private final OutputStream out;
+    private final StreamRDF stream;
+    private long count;
+
+    private TripleFileWriter(File file, ResultFileFormat format) throws IOException {
+        this.file = file;
+        var channel = Channels.newOutputStream(FileChannel.open(file.toPath(), CREATE, TRUNCATE_EXISTING, WRITE));
+        this.out = format.gzip()
+                ? new BufferedOutputStream(new GZIPOutputStream(channel, BUFFER_SIZE), BUFFER_SIZE)
+                : new BufferedOutputStream(channel, BUFFER_SIZE);
+        this.stream = StreamRDFWriter.getWriterStream(out, format.lang());
+        this.stream.start();
+    }
+
+    public static TripleFileWriter open(File file, ResultFileFormat format) throws IOException {
+        return new TripleFileWriter(file, format);
+    }
+
+    public void triple(Triple triple) {
+        stream.triple(triple);
+        count++;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            stream.finish();
+        } finally {
+            out.close();
+        }
+    }
+}
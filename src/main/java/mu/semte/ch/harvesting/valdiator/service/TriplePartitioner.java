@@ -0,0 +1,79 @@
+package mu.semte.ch.harvesting.valdiator.service;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.shacl.ValidationReport;
+import org.apache.jena.shacl.validation.ReportEntry;
+import org.apache.jena.sparql.path.P_Inverse;
+import org.apache.jena.sparql.path.P_Link;
+
+/**
+ * splits triples into valid and error triples in a single pass, using an index of the report entries.
+ * a triple (s, p, o) is an error triple when:
+ * <ul>
+ * <li>in strict mode, s is the focus node of any entry;</li>
+ * <li>an entry has focus node s, path p and value o (or focus node o, path ^p and value s);</li>
+ * <li>an entry has focus node s and path p but no value (e.g. sh:maxCount), all values of p are errors;</li>
+ * <li>an entry has focus node s, a complex path and value o.</li>
+ * </ul>
+ * entries without path and value (e.g. sh:minCount) do not match any triple.
+ */
+public class TriplePartitioner {
+    private final boolean strictMode;
+    private final Set<Node> focusNodes = new HashSet<>();
+    private final Set<Triple> errorTriples = new HashSet<>();
+    private final Map<Node, Set<Node>> errorPredicates = new HashMap<>();
+    private final Map<Node, Set<Node>> errorValues = new HashMap<>();
+
+    public TriplePartitioner(ValidationReport report, boolean strictMode) {
+        this.strictMode = strictMode;
+        report.getEntries().forEach(this::index);
+    }
+
+    private void index(ReportEntry entry) {
+        var focusNode = entry.focusNode();
+        var value = entry.value();
+        focusNodes.add(focusNode);
+        if (entry.resultPath() instanceof P_Link link) {
+            if (value == null) {
+                errorPredicates.computeIfAbsent(focusNode, n -> new HashSet<>()).add(link.getNode());
+            } else {
+                errorTriples.add(Triple.create(focusNode, link.getNode(), value));
+            }
+        } else if (entry.resultPath() instanceof P_Inverse inverse && inverse.getSubPath() instanceof P_Link link
+                && value != null) {
+            errorTriples.add(Triple.create(value, link.getNode(), focusNode));
+        } else if (entry.resultPath() != null && value != null) {
+            errorValues.computeIfAbsent(focusNode, n -> new HashSet<>()).add(value);
+        }
+    }
+
+    public boolean isError(Triple triple) {
+        var subject = triple.getSubject();
+        if (strictMode && focusNodes.contains(subject)) {
+            return true;
+        }
+        return errorTriples.contains(triple)
+                || errorPredicates.getOrDefault(subject, Set.of()).contains(triple.getPredicate())
+                || errorValues.getOrDefault(subject, Set.of()).contains(triple.getObject());
+    }
+
+    public void partition(Iterator<Triple> triples, TripleFileWriter valid, TripleFileWriter error) {
+        while (triples.hasNext()) {
+            partition(triples.next(), valid, error);
+        }
+    }
+
+    public void partition(Triple triple, TripleFileWriter valid, TripleFileWriter error) {
+        if (isError(triple)) {
+            error.triple(triple);
+        } else {
+            valid.triple(triple);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package mu.semte.ch.harvesting.valdiator.service;
+
+/**
+ * which reports of the upstream validating task are reused instead of validating a file again.
+ * <ul>
+ * <li>none: every file is validated</li>
+ * <li>same-shapes: a report whose ext:shapesHash is the hash of the application profile, i.e. a report written
+ * by this service, or by a validating service that publishes the hash of its shapes the same way</li>
+ * <li>trusted: also a report without ext:shapesHash, for a validating task known to use the same application
+ * profile, as long as its results only refer to shapes of the profile</li>
+ * </ul>
+ * a report with another ext:shapesHash is never reused.
+ */
+public enum UpstreamReportPolicy {
+    NONE, SAME_SHAPES, TRUSTED;
+
+    public static UpstreamReportPolicy of(String name) {
+        return switch (name) {
+            case "none" -> NONE;
+            case "same-shapes" -> SAME_SHAPES;
+            case "trusted" -> TRUSTED;
+            default -> throw new IllegalArgumentException("unknown upstream report policy '%s'".formatted(name));
+        };
+    }
+}
@@ -0,0 +1,155 @@
+package mu.semte.ch.harvesting.valdiator.service;
+
+
+import com.google.common.hash.Hashing;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FileUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * on disk cache of validation outputs, keyed by the content hash of the input file,
+ * the hash of the shacl profile, the strict mode and the result file format.
+ * each entry is a directory, its last modified date is refreshed on every hit and
+ * the least recently used entries are evicted once the cache grows over its max size.
+ */
+@Component
+@Slf4j
+public class ValidationCache {
+    private static final String VALID_TRIPLES = "valid-triples";
+    private static final String ERROR_TRIPLES = "error-triples";
+    private static final String REPORT = "validation-report";
+
+    private final TaskService taskService;
+    private final ResultFileFormat resultFileFormat;
+    private final AtomicLong size = new AtomicLong();
+    @Value("${cache.enabled}")
+    private boolean enabled;
+    @Value("${cache.directory}")
+    private File directory;
+    @Value("${cache.maxSizeMb}")
+    private long maxSizeMb;
+    @Value("${shacl.strictModeFiltering}")
+    private boolean strictModeFiltering;
+
+    public ValidationCache(TaskService taskService, ResultFileFormat resultFileFormat) {
+        this.taskService = taskService;
+        this.resultFileFormat = resultFileFormat;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        if (!directory.mkdirs() && !directory.exists()) {
+            throw new RuntimeException("Failed to create directory: " + directory);
+        }
+        size.set(FileUtils.sizeOfDirectory(directory));
+        log.info("validation cache {} contains {} bytes", directory, size.get());
+    }
+
+    public Optional<String> keyOf(File input, String profileHash) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        try {
+            var contentHash = com.google.common.io.Files.asByteSource(input).hash(Hashing.sha256());
+            return Optional.of(Hashing.sha256()
+                    .hashString("%s|%s|%s|%s".formatted(contentHash, profileHash, strictModeFiltering,
+                            resultFileFormat.extension()), StandardCharsets.UTF_8)
+                    .toString());
+        } catch (IOException e) {
+            log.warn("could not hash {}, skipping cache", input, e);
+            return Optional.empty();
+        }
+    }
+
+    public boolean contains(String key) {
+        return new File(new File(directory, key), VALID_TRIPLES).exists();
+    }
+
+    public Optional<FileValidationResult> restore(String key, String jobId, String derivedFrom) {
+        var entry = new File(directory, key);
+        var validTriples = new File(entry, VALID_TRIPLES);
+        if (!validTriples.exists()) {
+            return Optional.empty();
+        }
+        try {
+            entry.setLastModified(System.currentTimeMillis());
+            var errorTriples = new File(entry, ERROR_TRIPLES);
+            if (!errorTriples.exists()) {
+                return Optional.of(new FileValidationResult(derivedFrom, true,
+                        copy(validTriples, jobId), null, null));
+            }
+            return Optional.of(new FileValidationResult(derivedFrom, false,
+                    copy(validTriples, jobId),
+                    copy(errorTriples, jobId),
+                    copy(new File(entry, REPORT), jobId)));
+        } catch (IOException e) {
+            log.warn("could not restore cache entry {}, validating again", key, e);
+            return Optional.empty();
+        }
+    }
+
+    private File copy(File cached, String jobId) throws IOException {
+        var target = taskService.newResultFile(jobId);
+        Files.copy(cached.toPath(), target.toPath());
+        return target;
+    }
+
+    public void store(String key, FileValidationResult result) {
+        var entry = new File(directory, key);
+        if (entry.exists()) {
+            return;
+        }
+        var tmp = new File(directory, key + ".tmp-" + Thread.currentThread().threadId());
+        try {
+            FileUtils.copyFile(result.validTriples(), new File(tmp, VALID_TRIPLES));
+            if (!result.conforms()) {
+                FileUtils.copyFile(result.errorTriples(), new File(tmp, ERROR_TRIPLES));
+                FileUtils.copyFile(result.report(), new File(tmp, REPORT));
+            }
+            var entrySize = FileUtils.sizeOfDirectory(tmp);
+            Files.move(tmp.toPath(), entry.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            size.addAndGet(entrySize);
+        } catch (IOException e) {
+            log.warn("could not store cache entry {}", key, e);
+            FileUtils.deleteQuietly(tmp);
+            return;
+        }
+        evict();
+    }
+
+    private synchronized void evict() {
+        var maxSize = maxSizeMb * 1024 * 1024;
+        if (size.get() <= maxSize) {
+            return;
+        }
+        var entries = directory.listFiles(file -> file.isDirectory() && !file.getName().contains(".tmp-"));
+        if (entries == null) {
+            return;
+        }
+        Arrays.sort(entries, Comparator.comparingLong(File::lastModified));
+        for (var entry : entries) {
+            if (size.get() <= maxSize) {
+                break;
+            }
+            var entrySize = FileUtils.sizeOfDirectory(entry);
+            if (FileUtils.deleteQuietly(entry)) {
+                size.addAndGet(-entrySize);
+                log.debug("evicted cache entry {}", entry.getName());
+            }
+        }
+    }
+}
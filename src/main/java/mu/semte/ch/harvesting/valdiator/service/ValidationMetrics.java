@@ -0,0 +1,115 @@
+package mu.semte.ch.harvesting.valdiator.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.function.Supplier;
+import org.springframework.stereotype.Component;
+
+/**
+ * micrometer meters of the filtering pipeline, exposed by the actuator prometheus endpoint.
+ * <ul>
+ * <li>validator.stage: time spent per file in each stage (parse, validate, partition, serialise, cache, register, report)</li>
+ * <li>validator.sparql: latency per query name, type (select, ask, update) and outcome</li>
+ * <li>validator.files: validated files, by conformance and cache hit</li>
+ * <li>validator.triples: written triples, by result (valid, error)</li>
+ * <li>validator.nodes.interned: parsed iris and literals, by result (hit when the node was already in memory)</li>
+ * <li>validator.files.inflight, validator.files.queued, validator.files.prefetched, validator.concurrency.limit</li>
+ * <li>validator.heap.budget, validator.heap.budget.used: heap budget and estimated cost of the files in memory</li>
+ * </ul>
+ */
+@Component
+public class ValidationMetrics {
+    private final MeterRegistry registry;
+
+    public ValidationMetrics(MeterRegistry registry, AdaptiveConcurrencyLimiter limiter,
+            FileValidationExecutor executor, HeapBudget heapBudget) {
+        this.registry = registry;
+        Gauge.builder("validator.files.inflight", limiter, AdaptiveConcurrencyLimiter::getInFlight)
+                .description("files being validated")
+                .register(registry);
+        Gauge.builder("validator.files.queued", executor, FileValidationExecutor::getQueueDepth)
+                .description("files waiting for a validation slot")
+                .register(registry);
+        Gauge.builder("validator.files.prefetched", executor, FileValidationExecutor::getPrefetched)
+                .description("files parsed ahead, waiting for a validation slot")
+                .register(registry);
+        Gauge.builder("validator.heap.budget.used", heapBudget, HeapBudget::getUsed)
+                .description("estimated heap cost of the files in memory")
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("validator.heap.budget", heapBudget, HeapBudget::getBudget)
+                .description("heap budget for the files in memory")
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("validator.concurrency.limit", limiter, AdaptiveConcurrencyLimiter::getLimit)
+                .description("current number of files allowed to be validated at the same time")
+                .register(registry);
+    }
+
+    public <T> T stage(String stage, Supplier<T> supplier) {
+        return stageTimer(stage).record(supplier);
+    }
+
+    public void stage(String stage, Runnable runnable) {
+        stageTimer(stage).record(runnable);
+    }
+
+    private Timer stageTimer(String stage) {
+        return Timer.builder("validator.stage")
+                .description("time spent per file in a stage of the filtering pipeline")
+                .tag("stage", stage)
+                .register(registry);
+    }
+
+    public <T> T sparql(String queryName, String type, Supplier<T> supplier) {
+        var sample = Timer.start(registry);
+        var outcome = "error";
+        try {
+            var result = supplier.get();
+            outcome = "success";
+            return result;
+        } finally {
+            sample.stop(Timer.builder("validator.sparql")
+                    .description("latency of the sparql queries")
+                    .tag("query", queryName)
+                    .tag("type", type)
+                    .tag("outcome", outcome)
+                    .register(registry));
+        }
+    }
+
+    public void file(boolean conforms, boolean cached) {
+        Counter.builder("validator.files")
+                .description("validated files")
+                .tag("conforms", Boolean.toString(conforms))
+                .tag("cached", Boolean.toString(cached))
+                .register(registry)
+                .increment();
+    }
+
+    public void triples(long valid, long error) {
+        triplesCounter("valid").increment(valid);
+        triplesCounter("error").increment(error);
+    }
+
+    public void interned(long hits, long misses) {
+        internedCounter("hit").increment(hits);
+        internedCounter("miss").increment(misses);
+    }
+
+    private Counter internedCounter(String result) {
+        return Counter.builder("validator.nodes.interned")
+                .description("iris and literals parsed with the node interner of their task")
+                .tag("result", result)
+                .register(registry);
+    }
+
+    private Counter triplesCounter(String result) {
+        return Counter.builder("validator.triples")
+                .description("triples written to the result files")
+                .tag("result", result)
+                .register(registry);
+    }
+}
@@ -0,0 +1,37 @@
+package mu.semte.ch.harvesting.valdiator.service;
+
+import com.google.common.hash.Hashing;
+import java.io.ByteArrayInputStream;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFLanguages;
+import org.apache.jena.riot.RDFParser;
+import org.apache.jena.shacl.Shapes;
+import org.apache.jena.sparql.graph.GraphFactory;
+
+/**
+ * parsed shacl shapes, with the sha-256 of the profile they were parsed from.
+ */
+public record ValidationProfile(String hash, Shapes shapes, ShapeIndex shapeIndex) {
+
+    public ValidationProfile(String hash, Shapes shapes) {
+        this(hash, shapes, new ShapeIndex(shapes));
+    }
+
+    /**
+     * the sha-256 of a profile, the key of its compiled shapes.
+     */
+    public static String hash(byte[] content) {
+        return Hashing.sha256().hashBytes(content).toString();
+    }
+
+    /**
+     * parses a profile, in the syntax of its file name (turtle by default).
+     */
+    public static ValidationProfile parse(byte[] content, String fileName) {
+        var shapesGraph = GraphFactory.createDefaultGraph();
+        RDFParser.source(new ByteArrayInputStream(content))
+                .lang(RDFLanguages.filenameToLang(fileName, Lang.TURTLE))
+                .parse(shapesGraph);
+        return new ValidationProfile(hash(content), Shapes.parse(shapesGraph));
+    }
+}
@@ -0,0 +1,190 @@
+package mu.semte.ch.harvesting.valdiator.service;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchService;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import mu.semte.ch.lib.dto.Task;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+
+/**
+ * the validation profile of a task: the profile named by the ext:applicationProfile of its job, looked up in the
+ * profiles directory, or the default profile.
+ * compiled profiles are kept in an lru cache keyed by the sha-256 of their content, and the hash of the current
+ * content of every profile file is remembered, so that a task does not read its profile again.
+ * a watcher recompiles a profile file when it changes and then swaps its hash, tasks already running keep validating
+ * with the profile they started with.
+ */
+@Service
+@Slf4j
+public class ValidationProfileRegistry {
+    private final TaskService taskService;
+    private final ValidationProfile defaultValidationProfile;
+    private final Path defaultProfilePath;
+    private final Path directory;
+    private final boolean watchEnabled;
+    private final Map<Path, String> currentHashes = new ConcurrentHashMap<>();
+    private final Map<String, ValidationProfile> compiled;
+    private WatchService watchService;
+
+    public ValidationProfileRegistry(TaskService taskService, ValidationProfile defaultValidationProfile,
+            @Value("${shacl.application-profile.default}") Resource defaultProfile,
+            @Value("${shacl.profiles.directory}") String directory,
+            @Value("${shacl.profiles.cacheSize}") int cacheSize,
+            @Value("${shacl.profiles.watch}") boolean watchEnabled) throws IOException {
+        this.taskService = taskService;
+        this.defaultValidationProfile = defaultValidationProfile;
+        this.defaultProfilePath = defaultProfile.isFile() ? defaultProfile.getFile().toPath().toAbsolutePath() : null;
+        this.directory = Path.of(directory).toAbsolutePath();
+        this.watchEnabled = watchEnabled;
+        var maxEntries = Math.max(1, cacheSize);
+        this.compiled = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ValidationProfile> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        this.compiled.put(defaultValidationProfile.hash(), defaultValidationProfile);
+        if (defaultProfilePath != null) {
+            currentHashes.put(defaultProfilePath, defaultValidationProfile.hash());
+        }
+    }
+
+    @PostConstruct
+    public void startWatching() throws IOException {
+        if (!watchEnabled) {
+            return;
+        }
+        var directories = new LinkedHashSet<Path>();
+        if (defaultProfilePath != null) {
+            directories.add(defaultProfilePath.getParent());
+        }
+        if (Files.isDirectory(directory)) {
+            directories.add(directory);
+        }
+        if (directories.isEmpty()) {
+            return;
+        }
+        watchService = directory.getFileSystem().newWatchService();
+        for (var dir : directories) {
+            dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
+            log.info("watching validation profiles in {}", dir);
+        }
+        Thread.ofPlatform().daemon().name("validation-profile-watcher").start(this::watch);
+    }
+
+    @PreDestroy
+    public void stopWatching() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+
+    public ValidationProfile forTask(Task task) {
+        return taskService.selectJobApplicationProfile(task)
+                .map(this::profilePath)
+                .map(this::profile)
+                .orElseGet(() -> defaultProfilePath != null ? profile(defaultProfilePath) : defaultValidationProfile);
+    }
+
+    /**
+     * the file of a profile name in the profiles directory. the name of an iri is its last segment.
+     */
+    private Path profilePath(String profile) {
+        var name = StringUtils.substringAfterLast("/" + profile, "/");
+        var path = directory.resolve(name).normalize();
+        if (StringUtils.isBlank(name) || !directory.equals(path.getParent())) {
+            throw new IllegalArgumentException("invalid application profile %s".formatted(profile));
+        }
+        return path;
+    }
+
+    /**
+     * the current profile of the file, compiling it if it is not known yet or was evicted.
+     */
+    private ValidationProfile profile(Path path) {
+        var hash = currentHashes.get(path);
+        if (hash != null) {
+            synchronized (compiled) {
+                var profile = compiled.get(hash);
+                if (profile != null) {
+                    return profile;
+                }
+            }
+        }
+        return compile(path);
+    }
+
+    @SneakyThrows
+    private ValidationProfile compile(Path path) {
+        var content = Files.readAllBytes(path);
+        var hash = ValidationProfile.hash(content);
+        ValidationProfile profile;
+        synchronized (compiled) {
+            profile = compiled.get(hash);
+        }
+        if (profile == null) {
+            // compiled outside the lock, compiling the same content twice is harmless
+            profile = ValidationProfile.parse(content, path.getFileName().toString());
+            log.info("compiled validation profile {} ({})", path, hash);
+            synchronized (compiled) {
+                compiled.put(hash, profile);
+            }
+        }
+        currentHashes.put(path, hash);
+        return profile;
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                var key = watchService.take();
+                var dir = (Path) key.watchable();
+                for (var event : key.pollEvents()) {
+                    if (event.context() instanceof Path name) {
+                        recompile(dir.resolve(name));
+                    }
+                }
+                key.reset();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            log.debug("stopped watching validation profiles");
+        }
+    }
+
+    /**
+     * recompiles a changed profile that was used before, a profile that fails to compile (e.g. while it is being
+     * written) is kept at its previous version.
+     */
+    private void recompile(Path path) {
+        if (!currentHashes.containsKey(path) || !Files.isRegularFile(path)) {
+            return;
+        }
+        try {
+            var previous = currentHashes.get(path);
+            var profile = compile(path);
+            if (!profile.hash().equals(previous)) {
+                log.info("validation profile {} changed, new tasks validate with {}", path, profile.hash());
+            }
+        } catch (Exception e) {
+            log.warn("could not compile validation profile {}, keeping its previous version", path, e);
+        }
+    }
+}
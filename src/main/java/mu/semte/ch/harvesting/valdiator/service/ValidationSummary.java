@@ -0,0 +1,171 @@
+package mu.semte.ch.harvesting.valdiator.service;
+
+import static mu.semte.ch.harvesting.valdiator.Constants.SHAPES_HASH;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.shacl.ValidationReport;
+import org.apache.jena.shacl.validation.ReportEntry;
+import org.apache.jena.shacl.vocabulary.SHACL;
+import org.apache.jena.sparql.path.P_Link;
+import org.apache.jena.vocabulary.RDF;
+
+/**
+ * number of report entries of a task per shape, path, constraint component and derivedFrom, counted as the
+ * reports come in, instead of a report file per input file.
+ * a property shape without iri is counted under the node shape it belongs to.
+ * entries of reports read back from a file (cached results) have no constraint component.
+ * a summary only counts the files of its run: it is marked ext:partial when it covers a single shard, or when files
+ * done by a previous run of the task were skipped, and it then records the shard and the number of skipped files.
+ */
+public class ValidationSummary {
+    private static final String EXT = "http://mu.semte.ch/vocabularies/ext/";
+    private static final Node SUMMARY = NodeFactory.createURI(EXT + "ValidationSummary");
+    private static final Node ENTRY = NodeFactory.createURI(EXT + "summaryEntry");
+    private static final Node COUNT = NodeFactory.createURI(EXT + "count");
+    private static final Node RESULT_PATH_EXPRESSION = NodeFactory.createURI(EXT + "resultPathExpression");
+    private static final Node CONFORMING_FILES = NodeFactory.createURI(EXT + "conformingFiles");
+    private static final Node NON_CONFORMING_FILES = NodeFactory.createURI(EXT + "nonConformingFiles");
+    private static final Node PARTIAL = NodeFactory.createURI(EXT + "partial");
+    private static final Node SHARD = NodeFactory.createURI(EXT + "shard");
+    private static final Node SKIPPED_FILES = NodeFactory.createURI(EXT + "skippedFiles");
+    private static final Node DERIVED_FROM = NodeFactory.createURI("http://www.w3.org/ns/prov#wasDerivedFrom");
+
+    private final Graph shapes;
+    private final Integer shard;
+    private final Map<Key, Long> counts = new HashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private long conformingFiles;
+    private long nonConformingFiles;
+    private long skippedFiles;
+
+    private record Key(Node shape, Node path, Node component, String derivedFrom) {
+    }
+
+    /**
+     * shard is the index of the shard the summary is about, null when the task is not sharded.
+     */
+    public ValidationSummary(Graph shapes, Integer shard) {
+        this.shapes = shapes;
+        this.shard = shard;
+    }
+
+    /**
+     * files done by a previous run, which are not counted.
+     */
+    public void skipped(long files) {
+        lock.lock();
+        try {
+            skippedFiles += files;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void file(boolean conforms) {
+        lock.lock();
+        try {
+            if (conforms) {
+                conformingFiles++;
+            } else {
+                nonConformingFiles++;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void add(String derivedFrom, ValidationReport report) {
+        lock.lock();
+        try {
+            for (var entry : report.getEntries()) {
+                counts.merge(new Key(shape(entry.source()), path(entry), component(entry), derivedFrom), 1L,
+                        Long::sum);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Node shape(Node source) {
+        if (source == null || source.isURI()) {
+            return source;
+        }
+        return shapes.find(Node.ANY, SHACL.property, source)
+                .mapWith(Triple::getSubject)
+                .filterKeep(Node::isURI)
+                .nextOptional()
+                .orElse(null);
+    }
+
+    private Node path(ReportEntry entry) {
+        var path = entry.resultPath();
+        if (path == null) {
+            return null;
+        }
+        return path instanceof P_Link link ? link.getNode() : NodeFactory.createLiteral(path.toString());
+    }
+
+    private Node component(ReportEntry entry) {
+        var constraint = entry.sourceConstraintComponent();
+        return constraint == null ? null : constraint.getComponent();
+    }
+
+    /**
+     * writes the summary as a resource of type ext:ValidationSummary with an ext:summaryEntry per count.
+     */
+    public void write(String summaryUri, String shapesHash, Consumer<Triple> out) {
+        lock.lock();
+        try {
+            var summary = NodeFactory.createURI(summaryUri);
+            out.accept(Triple.create(summary, RDF.Nodes.type, SUMMARY));
+            out.accept(Triple.create(summary, NodeFactory.createURI(SHAPES_HASH),
+                    NodeFactory.createLiteral(shapesHash)));
+            out.accept(Triple.create(summary, SHACL.conforms, bool(counts.isEmpty())));
+            out.accept(Triple.create(summary, CONFORMING_FILES, integer(conformingFiles)));
+            out.accept(Triple.create(summary, NON_CONFORMING_FILES, integer(nonConformingFiles)));
+            out.accept(Triple.create(summary, PARTIAL, bool(shard != null || skippedFiles > 0)));
+            if (shard != null) {
+                out.accept(Triple.create(summary, SHARD, integer(shard)));
+            }
+            if (skippedFiles > 0) {
+                out.accept(Triple.create(summary, SKIPPED_FILES, integer(skippedFiles)));
+            }
+            var index = 0;
+            for (var count : counts.entrySet()) {
+                var key = count.getKey();
+                var entry = NodeFactory.createURI("%s/entries/%d".formatted(summaryUri, index++));
+                out.accept(Triple.create(summary, ENTRY, entry));
+                out.accept(Triple.create(entry, DERIVED_FROM, NodeFactory.createURI(key.derivedFrom())));
+                out.accept(Triple.create(entry, COUNT, integer(count.getValue())));
+                if (key.shape() != null) {
+                    out.accept(Triple.create(entry, SHACL.sourceShape, key.shape()));
+                }
+                if (key.path() != null) {
+                    out.accept(Triple.create(entry, key.path().isURI() ? SHACL.resultPath : RESULT_PATH_EXPRESSION,
+                            key.path()));
+                }
+                if (key.component() != null) {
+                    out.accept(Triple.create(entry, SHACL.sourceConstraintComponent, key.component()));
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static Node integer(long value) {
+        return NodeFactory.createLiteral(Long.toString(value), XSDDatatype.XSDinteger);
+    }
+
+    private static Node bool(boolean value) {
+        return NodeFactory.createLiteral(Boolean.toString(value), XSDDatatype.XSDboolean);
+    }
+}
@@ -0,0 +1,46 @@
+package mu.semte.ch.harvesting.valdiator.service;
+
+import static mu.semte.ch.harvesting.valdiator.Constants.VALIDATION_SUMMARY_FILE_NAME;
+import static mu.semte.ch.harvesting.valdiator.Constants.VALIDATION_SUMMARY_PREFIX;
+import static mu.semte.ch.lib.utils.ModelUtils.uuid;
+
+import lombok.SneakyThrows;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * optional validation summary of a task, one per filtering run. a sharded task gets one summary per shard, named
+ * after it (see {@link FilteringContext#runFileName(String)}).
+ * the summary of a shard, or of a run resumed from a checkpoint, is marked partial, see {@link ValidationSummary}.
+ */
+@Service
+public class ValidationSummaryService {
+    private final TaskService taskService;
+    @Value("${report.summary.enabled}")
+    private boolean enabled;
+
+    public ValidationSummaryService(TaskService taskService) {
+        this.taskService = taskService;
+    }
+
+    /**
+     * a new summary of the task, or of the shard if not null, or null when the summary is disabled.
+     */
+    public ValidationSummary open(ValidationProfile profile, TaskShardService.ShardLease shard) {
+        return enabled ? new ValidationSummary(profile.shapes().getGraph(), shard == null ? null : shard.index())
+                : null;
+    }
+
+    @SneakyThrows
+    public void writeSummary(FilteringContext context, ValidationSummary summary) {
+        var task = context.task().task();
+        try (var writer = taskService.openResultFile(context.task().jobId())) {
+            summary.write(VALIDATION_SUMMARY_PREFIX + uuid(), context.profile().hash(), writer::triple);
+            var logicalFile = taskService.registerResultFile(task.getGraph(), writer.getFile(), task.getTask(),
+                    context.runFileName(VALIDATION_SUMMARY_FILE_NAME), context.profile().hash(), context.batch());
+            taskService.appendTaskResultFile(context.task(),
+                    context.fileContainer().toBuilder().graphUri(logicalFile).build(),
+                    context.batch());
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package mu.semte.ch.harvesting.valdiator.service;
+
+import static java.util.Optional.ofNullable;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.jena.graph.Node;
+import org.apache.jena.shacl.ValidationReport;
+import org.apache.jena.shacl.engine.ShaclPaths;
+import org.apache.jena.shacl.lib.ShLib;
+import org.apache.jena.shacl.validation.ReportEntry;
+import org.apache.poi.ss.usermodel.FillPatternType;
+import org.apache.poi.ss.usermodel.IndexedColors;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.util.WorkbookUtil;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+/**
+ * xlsx statistics of the report entries of all the files of a task, with a detail sheet per path.
+ * detail rows are streamed to temporary files as entries are added, keeping rowWindow rows per sheet in memory,
+ * and at most maxDetailRows rows are written per path. the statistics sheet is written by {@link #write(File)}.
+ */
+public class XlsReport implements AutoCloseable {
+    private static final int MAX_CELL_LENGTH = 1024;
+    private static final int COLUMN_WIDTH = 60 * 256;
+
+    private final SXSSFWorkbook workbook;
+    private final Sheet statistics;
+    private final int maxDetailRows;
+    private final Map<String, PathSheet> byPath = new LinkedHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private long total;
+
+    private static class PathSheet {
+        private final Sheet sheet;
+        private long count;
+        private long files;
+        private int rows;
+
+        private PathSheet(Sheet sheet) {
+            this.sheet = sheet;
+        }
+    }
+
+    public XlsReport(int rowWindow, int maxDetailRows) {
+        this.workbook = new SXSSFWorkbook(rowWindow);
+        this.workbook.setCompressTempFiles(true);
+        this.maxDetailRows = maxDetailRows;
+        this.statistics = workbook.createSheet("Statistics");
+        header(statistics, "Property", "Number of Occurences", "Number of Files");
+    }
+
+    public void add(String derivedFrom, ValidationReport report) {
+        lock.lock();
+        try {
+            var inFile = new HashSet<PathSheet>();
+            for (var entry : report.getEntries()) {
+                var pathSheet = byPath.computeIfAbsent(pathName(entry), this::createPathSheet);
+                pathSheet.count++;
+                total++;
+                if (inFile.add(pathSheet)) {
+                    pathSheet.files++;
+                }
+                if (pathSheet.rows < maxDetailRows) {
+                    detail(pathSheet.sheet.createRow(++pathSheet.rows), entry, derivedFrom);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isEmpty() {
+        return total == 0;
+    }
+
+    private String pathName(ReportEntry entry) {
+        var path = entry.resultPath();
+        if (path == null) {
+            return "Focus Node";
+        }
+        return ofNullable(ShaclPaths.pathNode(path))
+                .filter(Node::isURI)
+                .map(Node::getLocalName)
+                .orElseGet(path::toString);
+    }
+
+    private PathSheet createPathSheet(String pathName) {
+        var name = WorkbookUtil.createSafeSheetName(pathName);
+        for (var i = 2; workbook.getSheet(name) != null; i++) {
+            var suffix = " (%d)".formatted(i);
+            name = StringUtils.left(name, 31 - suffix.length()) + suffix;
+        }
+        var sheet = workbook.createSheet(name);
+        header(sheet, "Focus Node", "Value", "Result Message", "Path", "Derived From");
+        return new PathSheet(sheet);
+    }
+
+    private void header(Sheet sheet, String... titles) {
+        var header = sheet.createRow(0);
+        for (var i = 0; i < titles.length; i++) {
+            header.createCell(i).setCellValue(titles[i]);
+            // fixed widths, auto sizing reads every row of the sheet
+            sheet.setColumnWidth(i, COLUMN_WIDTH);
+        }
+    }
+
+    private void detail(Row row, ReportEntry entry, String derivedFrom) {
+        row.createCell(0).setCellValue(display(entry.focusNode()));
+        row.createCell(1).setCellValue(display(entry.value()));
+        row.createCell(2).setCellValue(abbreviate(ofNullable(entry.message()).orElse("")));
+        row.createCell(3).setCellValue(display(ofNullable(entry.resultPath())
+                .map(ShaclPaths::pathNode)
+                .orElse(null)));
+        row.createCell(4).setCellValue(abbreviate(derivedFrom));
+    }
+
+    private String display(Node node) {
+        return ofNullable(node).map(ShLib::displayStr).map(this::abbreviate).orElse("");
+    }
+
+    private String abbreviate(String val) {
+        return StringUtils.abbreviate(val, MAX_CELL_LENGTH);
+    }
+
+    public void write(File file) throws IOException {
+        lock.lock();
+        try {
+            var rowNumber = 1;
+            for (var entry : byPath.entrySet()) {
+                var row = statistics.createRow(rowNumber++);
+                row.createCell(0).setCellValue(entry.getKey());
+                row.createCell(1).setCellValue(entry.getValue().count);
+                row.createCell(2).setCellValue(entry.getValue().files);
+            }
+            var cellStyle = workbook.createCellStyle();
+            cellStyle.setFillForegroundColor(IndexedColors.LIGHT_YELLOW.getIndex());
+            cellStyle.setFillPattern(FillPatternType.SOLID_FOREGROUND);
+            var row = statistics.createRow(rowNumber);
+            var totalCell = row.createCell(0);
+            totalCell.setCellValue("Total");
+            totalCell.setCellStyle(cellStyle);
+            var totalCellValue = row.createCell(1);
+            totalCellValue.setCellValue(total);
+            totalCellValue.setCellStyle(cellStyle);
+            try (var out = new FileOutputStream(file)) {
+                workbook.write(out);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        workbook.dispose();
+        workbook.close();
+    }
+}
@@ -0,0 +1,86 @@
+package mu.semte.ch.harvesting.valdiator.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class AdaptiveConcurrencyLimiterTest {
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(2000);
+
+    @Test
+    void growsByOneAfterEachFastWindow() {
+        var limiter = new AdaptiveConcurrencyLimiter(1, 16, 4, 20, 1000, 0.05);
+
+        record(limiter, 19, FAST, 0);
+        assertEquals(4, limiter.getLimit());
+        record(limiter, 1, FAST, 0);
+        assertEquals(5, limiter.getLimit());
+        record(limiter, 20, FAST, 0);
+        assertEquals(6, limiter.getLimit());
+    }
+
+    @Test
+    void halvesAfterASlowWindowDownToTheMinimum() {
+        var limiter = new AdaptiveConcurrencyLimiter(2, 16, 10, 20, 1000, 0.05);
+
+        record(limiter, 20, SLOW, 0);
+        assertEquals(5, limiter.getLimit());
+        record(limiter, 20, SLOW, 0);
+        assertEquals(2, limiter.getLimit());
+        record(limiter, 20, SLOW, 0);
+        assertEquals(2, limiter.getLimit());
+    }
+
+    @Test
+    void halvesWhenTooManyUpdatesFail() {
+        var limiter = new AdaptiveConcurrencyLimiter(1, 16, 8, 20, 1000, 0.05);
+
+        // one failure in 20 is the maximum error rate, two are over it
+        record(limiter, 20, FAST, 1);
+        assertEquals(9, limiter.getLimit());
+        record(limiter, 20, FAST, 2);
+        assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    void doesNotGrowPastTheMaximum() {
+        var limiter = new AdaptiveConcurrencyLimiter(1, 4, 16, 20, 1000, 0.05);
+
+        assertEquals(4, limiter.getLimit());
+        record(limiter, 20, FAST, 0);
+        assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    void admitsAWaitingFileOnceTheLimitGrows() throws InterruptedException {
+        var limiter = new AdaptiveConcurrencyLimiter(1, 2, 1, 1, 1000, 0.05);
+        limiter.acquire();
+        var waiting = new Thread(() -> {
+            try {
+                limiter.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        waiting.start();
+        for (var i = 0; i < 500 && waiting.getState() != Thread.State.WAITING; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(Thread.State.WAITING, waiting.getState());
+
+        record(limiter, 1, FAST, 0);
+        waiting.join(5000);
+
+        assertFalse(waiting.isAlive());
+        assertEquals(2, limiter.getInFlight());
+    }
+
+    private static void record(AdaptiveConcurrencyLimiter limiter, int updates, long latencyNanos, int failures) {
+        for (var i = 0; i < updates; i++) {
+            limiter.recordUpdate(latencyNanos, i >= failures);
+        }
+    }
+}
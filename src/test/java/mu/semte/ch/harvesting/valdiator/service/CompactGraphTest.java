@@ -0,0 +1,172 @@
+package mu.semte.ch.harvesting.valdiator.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.sparql.graph.GraphFactory;
+import org.apache.jena.vocabulary.RDF;
+import org.junit.jupiter.api.Test;
+
+class CompactGraphTest {
+    private static final String BESLUIT = "http://data.vlaanderen.be/ns/besluit#";
+    private static final Node S1 = uri("http://example.org/s1");
+    private static final Node S2 = uri("http://example.org/s2");
+    private static final Node P1 = uri("http://example.org/p1");
+    private static final Node P2 = uri("http://example.org/p2");
+    private static final Node O1 = uri("http://example.org/o1");
+    private static final Node O2 = NodeFactory.createLiteral("o2", "nl");
+    private static final Node UNKNOWN = uri("http://example.org/unknown");
+
+    @Test
+    void findsEveryPattern() {
+        var graph = build(List.of(
+                Triple.create(S1, P1, O1),
+                Triple.create(S1, P1, O2),
+                Triple.create(S1, P2, O1),
+                Triple.create(S2, P1, O1),
+                Triple.create(S2, P2, O2)));
+
+        assertEquals(Set.of(Triple.create(S1, P1, O1), Triple.create(S1, P1, O2), Triple.create(S1, P2, O1)),
+                find(graph, S1, null, null));
+        assertEquals(Set.of(Triple.create(S1, P1, O1), Triple.create(S1, P1, O2)), find(graph, S1, P1, null));
+        assertEquals(Set.of(Triple.create(S1, P1, O1)), find(graph, S1, P1, O1));
+        assertEquals(Set.of(Triple.create(S1, P1, O1), Triple.create(S1, P2, O1)), find(graph, S1, null, O1));
+        assertEquals(Set.of(Triple.create(S2, P1, O1), Triple.create(S1, P1, O1), Triple.create(S1, P1, O2)),
+                find(graph, null, P1, null));
+        assertEquals(Set.of(Triple.create(S1, P1, O1), Triple.create(S2, P1, O1)), find(graph, null, P1, O1));
+        assertEquals(Set.of(Triple.create(S1, P1, O2), Triple.create(S2, P2, O2)), find(graph, null, null, O2));
+        assertEquals(5, find(graph, null, null, null).size());
+        assertEquals(Set.of(), find(graph, S2, P2, O1));
+    }
+
+    @Test
+    void dropsDuplicateTriples() {
+        var graph = build(List.of(
+                Triple.create(S1, P1, O1),
+                Triple.create(S1, P1, O1),
+                Triple.create(S1, P1, O2),
+                Triple.create(S1, P1, O1)));
+
+        assertEquals(2, graph.size());
+        assertEquals(2, graph.find().toList().size());
+        assertEquals(1, graph.find(S1, P1, O1).toList().size());
+    }
+
+    @Test
+    void growsPastTheInitialCapacity() {
+        // more nodes and triples than the initial 1024 entries, so the dictionary is rehashed and the arrays grow
+        var triples = new ArrayList<Triple>();
+        for (var i = 0; i < 5000; i++) {
+            triples.add(Triple.create(uri("http://example.org/s" + i), P1, NodeFactory.createLiteral("value " + i)));
+        }
+        var graph = build(triples);
+
+        assertEquals(5000, graph.size());
+        for (var i = 0; i < 5000; i += 97) {
+            var subject = uri("http://example.org/s" + i);
+            assertEquals(Set.of(Triple.create(subject, P1, NodeFactory.createLiteral("value " + i))),
+                    find(graph, subject, null, null));
+        }
+        assertEquals(5000, find(graph, null, P1, null).size());
+    }
+
+    @Test
+    void doesNotContainUnknownNodes() {
+        var graph = build(List.of(Triple.create(S1, P1, O1)));
+
+        assertTrue(graph.contains(S1, P1, O1));
+        assertFalse(graph.contains(UNKNOWN, P1, O1));
+        assertFalse(graph.contains(S1, UNKNOWN, O1));
+        assertFalse(graph.contains(S1, P1, UNKNOWN));
+        assertFalse(graph.contains(UNKNOWN, Node.ANY, Node.ANY));
+        assertFalse(graph.contains(Node.ANY, Node.ANY, UNKNOWN));
+        assertFalse(graph.contains(Node.ANY, Node.ANY, NodeFactory.createLiteral("o2", "en")));
+        assertEquals(Set.of(), find(graph, UNKNOWN, null, null));
+    }
+
+    @Test
+    void agreesWithGraphMemOnAHarvestPage() {
+        var triples = harvestPage(new Random(42), 300);
+        var graph = build(triples);
+        var graphMem = GraphFactory.createGraphMem();
+        triples.forEach(graphMem::add);
+
+        assertEquals(graphMem.size(), graph.size());
+        assertEquals(find(graphMem, null, null, null), find(graph, null, null, null));
+        var nodes = new ArrayList<Node[]>();
+        graphMem.find().forEachRemaining(triple -> nodes.add(new Node[] {
+                triple.getSubject(), triple.getPredicate(), triple.getObject() }));
+        var random = new Random(7);
+        for (var i = 0; i < 2000; i++) {
+            var pattern = new Node[3];
+            for (var position = 0; position < 3; position++) {
+                // any, a node of a random triple at that position, or a node that is not in the graph
+                var pick = random.nextInt(5);
+                pattern[position] = pick < 2 ? null
+                        : pick < 4 ? nodes.get(random.nextInt(nodes.size()))[position]
+                        : UNKNOWN;
+            }
+            assertEquals(find(graphMem, pattern[0], pattern[1], pattern[2]),
+                    find(graph, pattern[0], pattern[1], pattern[2]));
+        }
+    }
+
+    /**
+     * besluiten with an agenda item, a title per language, a typed date, a blank node location and links to a
+     * shared administrative body, emitted twice in part like an overlapping harvest.
+     */
+    private static List<Triple> harvestPage(Random random, int resources) {
+        var triples = new ArrayList<Triple>();
+        var bodies = new Node[] { uri("http://data.lblod.info/id/bestuursorganen/1"),
+                uri("http://data.lblod.info/id/bestuursorganen/2") };
+        for (var i = 0; i < resources; i++) {
+            var besluit = uri("http://data.lblod.info/id/besluiten/" + i);
+            var item = uri("http://data.lblod.info/id/agendapunten/" + i);
+            var location = NodeFactory.createBlankNode();
+            triples.add(Triple.create(besluit, RDF.Nodes.type, uri(BESLUIT + "Besluit")));
+            triples.add(Triple.create(besluit, uri("http://data.europa.eu/eli/ontology#title"),
+                    NodeFactory.createLiteral("besluit " + i, "nl")));
+            if (random.nextBoolean()) {
+                triples.add(Triple.create(besluit, uri("http://data.europa.eu/eli/ontology#title"),
+                        NodeFactory.createLiteral("decision " + i, "en")));
+            }
+            triples.add(Triple.create(besluit, uri("http://data.europa.eu/eli/ontology#date_publication"),
+                    NodeFactory.createLiteral("2020-01-%02d".formatted(1 + random.nextInt(28)), XSDDatatype.XSDdate)));
+            triples.add(Triple.create(besluit, uri(BESLUIT + "heeftAgendapunt"), item));
+            triples.add(Triple.create(item, RDF.Nodes.type, uri(BESLUIT + "Agendapunt")));
+            triples.add(Triple.create(item, uri(BESLUIT + "orgaan"), bodies[random.nextInt(bodies.length)]));
+            triples.add(Triple.create(besluit, uri("http://purl.org/dc/terms/spatial"), location));
+            triples.add(Triple.create(location, uri("http://www.w3.org/ns/locn#postCode"),
+                    NodeFactory.createLiteral(Integer.toString(1000 + random.nextInt(9000)), XSDDatatype.XSDstring)));
+            if (random.nextInt(4) == 0) {
+                triples.add(triples.get(random.nextInt(triples.size())));
+            }
+        }
+        return triples;
+    }
+
+    private static CompactGraph build(List<Triple> triples) {
+        var builder = CompactGraph.builder();
+        triples.forEach(builder::triple);
+        return builder.build();
+    }
+
+    private static Set<Triple> find(Graph graph, Node subject, Node predicate, Node object) {
+        return new HashSet<>(graph.find(subject, predicate, object).toList());
+    }
+
+    private static Node uri(String uri) {
+        return NodeFactory.createURI(uri);
+    }
+}
@@ -0,0 +1,127 @@
+package mu.semte.ch.harvesting.valdiator.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class FileTaskScopeTest {
+
+    @Test
+    void failFastCancelsTheRunningFiles() throws InterruptedException {
+        var scope = new FileTaskScope(executor(), FailurePolicy.FAIL_FAST, 0);
+        var started = new CountDownLatch(1);
+        var cancelled = new AtomicBoolean();
+
+        scope.fork("blocked.ttl", () -> null, ignored -> block(started, cancelled));
+        started.await();
+        scope.fork("broken.ttl", () -> null, ignored -> {
+            throw new IllegalStateException("broken");
+        });
+        scope.join();
+
+        assertTrue(scope.isShutdown());
+        assertTrue(cancelled.get());
+        // the cancelled file is not a failure of its own
+        assertEquals(1, scope.getFailureCount());
+        assertEquals(1, scope.getFailures().size());
+        assertTrue(scope.getFailures().get(0).startsWith("broken.ttl: "));
+    }
+
+    @Test
+    void maxErrorsGivesUpOnTheFailureOverTheMaximum() throws InterruptedException {
+        var scope = new FileTaskScope(executor(), FailurePolicy.MAX_ERRORS, 2);
+        var ran = new AtomicInteger();
+
+        for (var i = 0; i < 2; i++) {
+            scope.fork("broken-%d.ttl".formatted(i), () -> null, ignored -> fail(ran));
+        }
+        scope.join();
+        assertFalse(scope.isShutdown());
+        assertEquals(2, scope.getFailureCount());
+
+        scope.fork("broken-2.ttl", () -> null, ignored -> fail(ran));
+        scope.join();
+        assertTrue(scope.isShutdown());
+        assertEquals(3, scope.getFailureCount());
+
+        // no file is forked once the scope gave up
+        scope.fork("late.ttl", () -> null, ignored -> ran.incrementAndGet());
+        scope.join();
+        assertEquals(3, ran.get());
+    }
+
+    @Test
+    void bestEffortTriesEveryFile() throws InterruptedException {
+        var scope = new FileTaskScope(executor(), FailurePolicy.BEST_EFFORT, 0);
+        var ran = new AtomicInteger();
+
+        for (var i = 0; i < 20; i++) {
+            if (i % 2 == 0) {
+                scope.fork("broken-%d.ttl".formatted(i), () -> null, ignored -> fail(ran));
+            } else {
+                scope.fork("file-%d.ttl".formatted(i), () -> null, ignored -> ran.incrementAndGet());
+            }
+        }
+        scope.join();
+
+        assertFalse(scope.isShutdown());
+        assertEquals(20, ran.get());
+        // every failure is counted, only the first ones are kept
+        assertEquals(10, scope.getFailureCount());
+        assertEquals(10, scope.getFailures().size());
+    }
+
+    @Test
+    void joinSeesTheFailureOfEveryFile() throws InterruptedException {
+        var scope = new FileTaskScope(executor(), FailurePolicy.BEST_EFFORT, 0);
+
+        for (var i = 0; i < 50; i++) {
+            scope.fork("broken-%d.ttl".formatted(i), () -> {
+                throw new IllegalStateException("unreadable");
+            }, ignored -> {
+            });
+        }
+        scope.join();
+
+        assertEquals(50, scope.getFailureCount());
+    }
+
+    @Test
+    void closeCancelsTheRunningFilesAndWaitsForThem() throws InterruptedException {
+        var scope = new FileTaskScope(executor(), FailurePolicy.BEST_EFFORT, 0);
+        var started = new CountDownLatch(1);
+        var cancelled = new AtomicBoolean();
+
+        scope.fork("blocked.ttl", () -> null, ignored -> block(started, cancelled));
+        started.await();
+        scope.close();
+
+        assertTrue(scope.isShutdown());
+        assertTrue(cancelled.get());
+        assertEquals(0, scope.getFailureCount());
+    }
+
+    private static void block(CountDownLatch started, AtomicBoolean cancelled) {
+        started.countDown();
+        try {
+            new CountDownLatch(1).await();
+        } catch (InterruptedException e) {
+            cancelled.set(true);
+            throw new IllegalStateException("cancelled", e);
+        }
+    }
+
+    private static void fail(AtomicInteger ran) {
+        ran.incrementAndGet();
+        throw new IllegalStateException("broken");
+    }
+
+    private static FileValidationExecutor executor() {
+        return new FileValidationExecutor(new AdaptiveConcurrencyLimiter(1, 4, 4, 20, 1000, 0.05), 4, 8, 2);
+    }
+}
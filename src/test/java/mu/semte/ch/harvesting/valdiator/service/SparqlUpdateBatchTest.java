@@ -0,0 +1,139 @@
+package mu.semte.ch.harvesting.valdiator.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class SparqlUpdateBatchTest {
+
+    @Test
+    void sendsOnceTheBatchIsFull() {
+        var sent = new CopyOnWriteArrayList<String>();
+        var batch = new SparqlUpdateBatch(update -> {
+            sent.add(update);
+            return CompletableFuture.completedFuture(null);
+        }, 2, Duration.ZERO, Executors.newSingleThreadScheduledExecutor());
+
+        batch.add("INSERT DATA { <s> <p> 1 }");
+        assertEquals(List.of(), sent);
+        batch.add("INSERT DATA { <s> <p> 2 }");
+        assertEquals(List.of("INSERT DATA { <s> <p> 1 };\nINSERT DATA { <s> <p> 2 }"), sent);
+
+        batch.add("INSERT DATA { <s> <p> 3 }");
+        batch.close();
+        assertEquals(List.of("INSERT DATA { <s> <p> 1 };\nINSERT DATA { <s> <p> 2 }", "INSERT DATA { <s> <p> 3 }"),
+                sent);
+    }
+
+    @Test
+    void sendsOnTheTimerWithAMaxDelay() throws InterruptedException {
+        var sent = new CopyOnWriteArrayList<String>();
+        var scheduler = Executors.newSingleThreadScheduledExecutor();
+        var batch = new SparqlUpdateBatch(update -> {
+            sent.add(update);
+            return CompletableFuture.completedFuture(null);
+        }, 100, Duration.ofMillis(10), scheduler);
+
+        batch.add("INSERT DATA { <s> <p> 1 }");
+        for (var i = 0; i < 500 && sent.isEmpty(); i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(List.of("INSERT DATA { <s> <p> 1 }"), sent);
+        batch.close();
+        scheduler.shutdown();
+    }
+
+    @Test
+    void runsCallbacksOnceTheUpdatesBeforeThemAreSent() {
+        var sends = new CopyOnWriteArrayList<CompletableFuture<Void>>();
+        var batch = new SparqlUpdateBatch(update -> {
+            var send = new CompletableFuture<Void>();
+            sends.add(send);
+            return send;
+        }, 10, Duration.ZERO, Executors.newSingleThreadScheduledExecutor());
+        var flushed = new AtomicInteger();
+
+        batch.add("INSERT DATA { <s> <p> 1 }");
+        batch.afterFlush(flushed::incrementAndGet);
+        batch.flush();
+        assertEquals(1, sends.size());
+        // added while the first send is in flight, so its callback waits for the second send
+        batch.add("INSERT DATA { <s> <p> 2 }");
+        batch.afterFlush(flushed::incrementAndGet);
+        assertEquals(0, flushed.get());
+
+        sends.get(0).complete(null);
+        assertEquals(1, flushed.get());
+        batch.flush();
+        assertEquals(2, sends.size());
+        sends.get(1).complete(null);
+        assertEquals(2, flushed.get());
+    }
+
+    @Test
+    void blocksAddingWhilePendingUpdatesWaitForASend() throws InterruptedException {
+        var sends = new CopyOnWriteArrayList<CompletableFuture<Void>>();
+        var batch = new SparqlUpdateBatch(update -> {
+            var send = new CompletableFuture<Void>();
+            sends.add(send);
+            return send;
+        }, 1, Duration.ZERO, Executors.newSingleThreadScheduledExecutor());
+
+        // the first update is in flight, the next four wait for it, which is the maximum for a batch size of one
+        for (var i = 0; i < 5; i++) {
+            batch.add("INSERT DATA { <s> <p> %d }".formatted(i));
+        }
+        assertEquals(1, sends.size());
+        var adding = new Thread(() -> batch.add("INSERT DATA { <s> <p> 5 }"));
+        adding.start();
+        for (var i = 0; i < 500 && adding.getState() != Thread.State.WAITING; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(Thread.State.WAITING, adding.getState());
+
+        sends.get(0).complete(null);
+        adding.join(5000);
+        assertFalse(adding.isAlive());
+        assertEquals(2, sends.size());
+    }
+
+    @Test
+    void failsTheBatchWhenASendFails() {
+        var flushed = new AtomicInteger();
+        var batch = new SparqlUpdateBatch(update -> CompletableFuture.failedFuture(new IllegalStateException("503")),
+                10, Duration.ZERO, Executors.newSingleThreadScheduledExecutor());
+
+        batch.add("INSERT DATA { <s> <p> 1 }");
+        batch.afterFlush(flushed::incrementAndGet);
+        batch.flush();
+
+        assertEquals(0, flushed.get());
+        assertThrows(IllegalStateException.class, () -> batch.add("INSERT DATA { <s> <p> 2 }"));
+        assertThrows(IllegalStateException.class, batch::close);
+    }
+
+    @Test
+    void onlySendsOnSizeWithoutAMaxDelay() {
+        var sent = new CopyOnWriteArrayList<String>();
+        var scheduler = Executors.newSingleThreadScheduledExecutor();
+        var batch = new SparqlUpdateBatch(update -> {
+            sent.add(update);
+            return CompletableFuture.completedFuture(null);
+        }, 10, Duration.ofMillis(-1), scheduler);
+
+        batch.add("INSERT DATA { <s> <p> 1 }");
+        assertTrue(scheduler.shutdownNow().isEmpty());
+        assertEquals(List.of(), sent);
+        batch.close();
+        assertEquals(List.of("INSERT DATA { <s> <p> 1 }"), sent);
+    }
+}
@@ -0,0 +1,108 @@
+package mu.semte.ch.harvesting.valdiator.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.junit.jupiter.api.Test;
+
+class SubjectChunkerTest {
+    private static final Node P = NodeFactory.createURI("http://example.org/p");
+    private static final Node Q = NodeFactory.createURI("http://example.org/q");
+
+    @Test
+    void cutsChunksBeforeANewSubject() {
+        var chunks = new ArrayList<List<Triple>>();
+        var chunker = new SubjectChunker(2, true, chunks::add);
+        for (var subject = 0; subject < 3; subject++) {
+            for (var value = 0; value < 3; value++) {
+                chunker.triple(Triple.create(uri(subject), P, NodeFactory.createLiteral("v" + value)));
+            }
+        }
+        chunker.finish();
+
+        assertEquals(3, chunks.size());
+        for (var i = 0; i < 3; i++) {
+            assertEquals(Set.of(uri(i)), subjects(chunks.get(i)));
+            assertEquals(3, chunks.get(i).size());
+        }
+        assertFalse(chunker.splitsSubject());
+    }
+
+    @Test
+    void keepsABlankNodeClosureWithItsResource() {
+        var chunks = new ArrayList<List<Triple>>();
+        var chunker = new SubjectChunker(1, chunks::add);
+        var address = NodeFactory.createBlankNode();
+        chunker.triple(Triple.create(uri(0), P, address));
+        chunker.triple(Triple.create(uri(1), P, NodeFactory.createLiteral("before the closure")));
+        chunker.triple(Triple.create(address, Q, NodeFactory.createLiteral("street")));
+        chunker.triple(Triple.create(uri(2), P, NodeFactory.createLiteral("v")));
+        chunker.finish();
+
+        // uri(1) comes while the blank node of uri(0) is unbalanced, so no chunk is cut before it
+        assertEquals(2, chunks.size());
+        assertEquals(Set.of(uri(0), uri(1), address), subjects(chunks.get(0)));
+        assertEquals(Set.of(uri(2)), subjects(chunks.get(1)));
+    }
+
+    @Test
+    void detectsASubjectSplitOverTwoChunks() {
+        var chunks = new ArrayList<List<Triple>>();
+        var chunker = new SubjectChunker(2, true, chunks::add);
+        chunker.triple(Triple.create(uri(0), P, NodeFactory.createLiteral("a")));
+        chunker.triple(Triple.create(uri(0), Q, NodeFactory.createLiteral("b")));
+        chunker.triple(Triple.create(uri(1), P, NodeFactory.createLiteral("c")));
+        chunker.triple(Triple.create(uri(1), Q, NodeFactory.createLiteral("d")));
+        assertFalse(chunker.splitsSubject());
+        // uri(0) again, after its chunk was cut
+        chunker.triple(Triple.create(uri(0), P, NodeFactory.createLiteral("e")));
+        chunker.finish();
+
+        assertTrue(chunker.splitsSubject());
+        assertEquals(Set.of(uri(0)), subjects(chunks.get(0)));
+        assertEquals(Set.of(uri(1)), subjects(chunks.get(1)));
+        assertEquals(Set.of(uri(0)), subjects(chunks.get(2)));
+    }
+
+    @Test
+    void acceptsANonContiguousSubjectWithinAChunk() {
+        var chunker = new SubjectChunker(10, true, chunk -> {
+        });
+        chunker.triple(Triple.create(uri(0), P, NodeFactory.createLiteral("a")));
+        chunker.triple(Triple.create(uri(1), P, NodeFactory.createLiteral("b")));
+        chunker.triple(Triple.create(uri(0), Q, NodeFactory.createLiteral("c")));
+        chunker.finish();
+
+        assertFalse(chunker.splitsSubject());
+    }
+
+    @Test
+    void detectsSplitSubjectsAmongManyChunks() {
+        // enough cut subjects for the subject hashes to be rehashed
+        var chunker = new SubjectChunker(1, true, chunk -> {
+        });
+        for (var i = 0; i < 5000; i++) {
+            chunker.triple(Triple.create(uri(i), P, NodeFactory.createLiteral("v")));
+        }
+        assertFalse(chunker.splitsSubject());
+        chunker.triple(Triple.create(uri(1234), Q, NodeFactory.createLiteral("late")));
+
+        assertTrue(chunker.splitsSubject());
+    }
+
+    private static Set<Node> subjects(List<Triple> chunk) {
+        return chunk.stream().map(Triple::getSubject).collect(Collectors.toSet());
+    }
+
+    private static Node uri(int index) {
+        return NodeFactory.createURI("http://example.org/s" + index);
+    }
+}